@@ -0,0 +1,309 @@
+package com.electronwill.toml;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * A compact table, used by the {@link TomlReader} instead of HashMap. The keys and the values are stored in two
+ * arrays, in insertion order. The small tables are searched linearly, and the bigger ones have an open-addressing
+ * index. There is no entry object, so a table takes much less memory than a HashMap.
+ * <p>
+ * A CompactTable is frozen at the end of the reading: its arrays are trimmed to its size, and it becomes
+ * immutable.
+ * </p>
+ *
+ * @author TheElectronWill
+ */
+final class CompactTable extends AbstractMap<String, Object> {
+
+	/**
+	 * The tables with up to this number of keys have no index.
+	 */
+	private static final int MAX_UNINDEXED_SIZE = 8;
+
+	private static final String[] NO_KEYS = {};
+	private static final Object[] NO_VALUES = {};
+
+	private String[] keys = NO_KEYS;
+	private Object[] values = NO_VALUES;
+	private int size;
+	private int[] index;// the position + 1 of each key, by hash, or null if the table is small
+	private boolean frozen;
+
+	/**
+	 * Freezes the compact tables contained in a value, including the value itself, recursively.
+	 *
+	 * @param value the value
+	 */
+	static void freeze(Object value) {
+		if (value instanceof CompactTable) {
+			CompactTable table = (CompactTable) value;
+			table.freeze();
+			for (int i = 0; i < table.size; i++) {
+				freeze(table.values[i]);
+			}
+		} else if (value instanceof HashMap) {// a table pruned by a PathFilter
+			for (Object element : ((HashMap<?, ?>) value).values()) {
+				freeze(element);
+			}
+		} else if (value instanceof List) {
+			List<?> list = (List) value;
+			if (!list.isEmpty() && (list.get(0) instanceof Map || list.get(0) instanceof List)) {
+				for (Object element : list) {
+					freeze(element);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Trims the arrays of this table and makes it immutable.
+	 */
+	void freeze() {
+		if (keys.length != size) {
+			keys = (size == 0) ? NO_KEYS : Arrays.copyOf(keys, size);
+			values = (size == 0) ? NO_VALUES : Arrays.copyOf(values, size);
+		}
+		frozen = true;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen)
+			throw new UnsupportedOperationException("This table is read-only");
+	}
+
+	private static int hash(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the position of a key, or -1 if the table doesn't contain it.
+	 */
+	private int indexOf(Object key) {
+		if (!(key instanceof String))
+			return -1;
+		int h = key.hashCode();
+		if (index == null) {
+			for (int i = 0; i < size; i++) {
+				String k = keys[i];
+				if (k == key || (k.hashCode() == h && k.equals(key)))
+					return i;
+			}
+			return -1;
+		}
+		int mask = index.length - 1;
+		for (int slot = hash(h) & mask;; slot = (slot + 1) & mask) {
+			int i = index[slot] - 1;
+			if (i < 0)
+				return -1;
+			String k = keys[i];
+			if (k == key || (k.hashCode() == h && k.equals(key)))
+				return i;
+		}
+	}
+
+	/**
+	 * Creates the index if the table is big enough, with a load factor of at most 0.5.
+	 */
+	private void buildIndex() {
+		if (size <= MAX_UNINDEXED_SIZE) {
+			index = null;
+			return;
+		}
+		int capacity = Integer.highestOneBit(size * 2 - 1) << 1;
+		if (index == null || index.length != capacity)
+			index = new int[capacity];
+		else
+			Arrays.fill(index, 0);
+		for (int i = 0; i < size; i++) {
+			addToIndex(i);
+		}
+	}
+
+	private void addToIndex(int i) {
+		int mask = index.length - 1;
+		int slot = hash(keys[i].hashCode()) & mask;
+		while (index[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		index[slot] = i + 1;
+	}
+
+	@Override
+	public Object get(Object key) {
+		int i = indexOf(key);
+		return (i < 0) ? null : values[i];
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		checkNotFrozen();
+		int i = indexOf(Objects.requireNonNull(key));
+		if (i >= 0) {
+			Object old = values[i];
+			values[i] = value;
+			return old;
+		}
+		if (size == keys.length) {
+			int capacity = Math.max(4, size * 2);
+			keys = Arrays.copyOf(keys, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		keys[size] = key;
+		values[size] = value;
+		size++;
+		if (index == null || size * 2 > index.length)
+			buildIndex();
+		else
+			addToIndex(size - 1);
+		return null;
+	}
+
+	@Override
+	public Object remove(Object key) {
+		checkNotFrozen();
+		int i = indexOf(key);
+		if (i < 0)
+			return null;
+		Object old = values[i];
+		removeAt(i);
+		return old;
+	}
+
+	private void removeAt(int i) {
+		int moved = size - i - 1;
+		System.arraycopy(keys, i + 1, keys, i, moved);
+		System.arraycopy(values, i + 1, values, i, moved);
+		size--;
+		keys[size] = null;
+		values[size] = null;
+		buildIndex();
+	}
+
+	@Override
+	public void clear() {
+		checkNotFrozen();
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+		index = null;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public void forEach(BiConsumer<? super String, ? super Object> action) {
+		for (int i = 0; i < size; i++) {
+			action.accept(keys[i], values[i]);
+		}
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+		private int next = 0, last = -1;
+
+		@Override
+		public boolean hasNext() {
+			return next < size;
+		}
+
+		@Override
+		public Map.Entry<String, Object> next() {
+			if (next >= size)
+				throw new NoSuchElementException();
+			last = next++;
+			return new Entry(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0)
+				throw new IllegalStateException();
+			checkNotFrozen();
+			removeAt(last);
+			next = last;
+			last = -1;
+		}
+	}
+
+	private final class Entry implements Map.Entry<String, Object> {
+		private final int i;
+
+		Entry(int i) {
+			this.i = i;
+		}
+
+		@Override
+		public String getKey() {
+			return keys[i];
+		}
+
+		@Override
+		public Object getValue() {
+			return values[i];
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			checkNotFrozen();
+			Object old = values[i];
+			values[i] = value;
+			return old;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> e = (Map.Entry) obj;
+			return Objects.equals(getKey(), e.getKey()) && Objects.equals(getValue(), e.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+}
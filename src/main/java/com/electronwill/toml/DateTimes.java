@@ -0,0 +1,279 @@
+package com.electronwill.toml;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAccessor;
+
+/**
+ * Fast parsing and formatting of the usual RFC 3339 datetimes. The digits are read at their known positions and the
+ * java.time objects are created directly, which is much faster than {@link Toml#DATE_FORMATTER}. The other shapes
+ * of datetimes are left to the DATE_FORMATTER.
+ *
+ * @author TheElectronWill
+ */
+final class DateTimes {
+
+	/**
+	 * The offsets that are multiples of 15 minutes, from -18:00 to +18:00. They're created when first needed.
+	 */
+	private static final ZoneOffset[] QUARTER_OFFSETS = new ZoneOffset[145];
+
+	/**
+	 * The maximum number of chars written by {@link #format(TemporalAccessor, char[], int)}.
+	 */
+	static final int MAX_FORMAT_LENGTH = 40;
+
+	private static final long SECONDS_PER_DAY = 86400;// long: Java 8 has no Math.floorDiv(long, int)
+
+	private DateTimes() {}
+
+	/**
+	 * Parses a datetime that has one of the following layouts: 2015-03-20, 2015-03-20T19:26:00,
+	 * 2015-03-20T19:26:00.999, and any of the last two followed by 'Z' or by an offset like +01:00.
+	 *
+	 * @param data the data containing the datetime
+	 * @param start the index of the first character of the datetime, inclusive
+	 * @param end the index of the last character of the datetime, exclusive
+	 * @return a LocalDate, a LocalDateTime or a ZonedDateTime, or null if the datetime doesn't have one of the
+	 *         layouts above, or if it is invalid
+	 */
+	static TemporalAccessor parse(CharSequence data, int start, int end) {
+		int length = end - start;
+		if (length < 10 || data.charAt(start + 4) != '-' || data.charAt(start + 7) != '-')
+			return null;
+		int year = digits(data, start, 4);
+		int month = digits(data, start + 5, 2);
+		int day = digits(data, start + 8, 2);
+		if ((year | month | day) < 0)
+			return null;
+		try {
+			LocalDate date = LocalDate.of(year, month, day);
+			if (length == 10)
+				return date;
+
+			// Time: THH:MM:SS
+			int i = start + 10;
+			if (length < 19 || data.charAt(i) != 'T' || data.charAt(i + 3) != ':' || data.charAt(i + 6) != ':')
+				return null;
+			int hour = digits(data, i + 1, 2);
+			int minute = digits(data, i + 4, 2);
+			int second = digits(data, i + 7, 2);
+			if ((hour | minute | second) < 0)
+				return null;
+			i += 9;
+
+			// Fraction of second: up to 9 digits
+			int nano = 0;
+			if (i < end && data.charAt(i) == '.') {
+				int fractionStart = ++i;
+				while (i < end && i - fractionStart < 9) {
+					int digit = data.charAt(i) - '0';
+					if (digit < 0 || digit > 9)
+						break;
+					nano = nano * 10 + digit;
+					i++;
+				}
+				int fractionLength = i - fractionStart;
+				if (fractionLength == 0)
+					return null;
+				for (int j = fractionLength; j < 9; j++) {
+					nano *= 10;
+				}
+			}
+			LocalDateTime dateTime = LocalDateTime.of(date, LocalTime.of(hour, minute, second, nano));
+			if (i == end)
+				return dateTime;
+
+			// Offset: Z or +HH:MM or -HH:MM
+			ZoneOffset offset;
+			char c = data.charAt(i);
+			if (c == 'Z' && i + 1 == end) {
+				offset = ZoneOffset.UTC;
+			} else if ((c == '+' || c == '-') && i + 6 == end && data.charAt(i + 3) == ':') {
+				int offsetHours = digits(data, i + 1, 2);
+				int offsetMinutes = digits(data, i + 4, 2);
+				if ((offsetHours | offsetMinutes) < 0 || offsetMinutes > 59)
+					return null;// the DATE_FORMATTER rejects the minutes out of range
+				offset = offset(c == '-', offsetHours, offsetMinutes);
+			} else {
+				return null;
+			}
+			return ZonedDateTime.of(dateTime, offset);
+		} catch (DateTimeException ex) {
+			return null;// let the DATE_FORMATTER decide if it's invalid
+		}
+	}
+
+	/**
+	 * Returns a ZoneOffset, which is cached if it's a multiple of 15 minutes.
+	 */
+	private static ZoneOffset offset(boolean negative, int hours, int minutes) {
+		int totalMinutes = hours * 60 + minutes;
+		boolean cacheable = (minutes % 15 == 0 && totalMinutes <= 18 * 60);
+		if (negative)
+			totalMinutes = -totalMinutes;
+		if (!cacheable)
+			return ZoneOffset.ofTotalSeconds(totalMinutes * 60);// may throw if out of range
+		int index = totalMinutes / 15 + 72;
+		ZoneOffset offset = QUARTER_OFFSETS[index];
+		if (offset == null) {
+			offset = ZoneOffset.ofTotalSeconds(totalMinutes * 60);
+			QUARTER_OFFSETS[index] = offset;// ZoneOffset is immutable, so the race is harmless
+		}
+		return offset;
+	}
+
+	/**
+	 * Formats a datetime like {@link Toml#DATE_FORMATTER}, directly in a char array. An Instant is formatted as a
+	 * datetime with the offset 'Z'.
+	 *
+	 * @param dateTime the datetime to format
+	 * @param chars where to write the chars, at least {@link #MAX_FORMAT_LENGTH} chars after the index
+	 * @param index where to write the first char
+	 * @return the index after the last written char, or -1 if the datetime isn't a LocalDate, a LocalDateTime, a
+	 *         ZonedDateTime, an OffsetDateTime or an Instant, or if its year isn't between 0 and 9999
+	 */
+	static int format(TemporalAccessor dateTime, char[] chars, int index) {
+		if (dateTime instanceof LocalDate) {
+			LocalDate d = (LocalDate) dateTime;
+			return formatDate(d.getYear(), d.getMonthValue(), d.getDayOfMonth(), chars, index);
+		}
+		if (dateTime instanceof LocalDateTime) {
+			LocalDateTime dt = (LocalDateTime) dateTime;
+			index = formatDate(dt.getYear(), dt.getMonthValue(), dt.getDayOfMonth(), chars, index);
+			if (index < 0)
+				return -1;
+			return formatTime(dt.getHour(), dt.getMinute(), dt.getSecond(), dt.getNano(), chars, index);
+		}
+		if (dateTime instanceof ZonedDateTime) {
+			ZonedDateTime dt = (ZonedDateTime) dateTime;
+			index = formatDate(dt.getYear(), dt.getMonthValue(), dt.getDayOfMonth(), chars, index);
+			if (index < 0)
+				return -1;
+			index = formatTime(dt.getHour(), dt.getMinute(), dt.getSecond(), dt.getNano(), chars, index);
+			return formatOffset(dt.getOffset(), chars, index);
+		}
+		if (dateTime instanceof OffsetDateTime) {
+			OffsetDateTime dt = (OffsetDateTime) dateTime;
+			index = formatDate(dt.getYear(), dt.getMonthValue(), dt.getDayOfMonth(), chars, index);
+			if (index < 0)
+				return -1;
+			index = formatTime(dt.getHour(), dt.getMinute(), dt.getSecond(), dt.getNano(), chars, index);
+			return formatOffset(dt.getOffset(), chars, index);
+		}
+		if (dateTime instanceof Instant) {
+			Instant instant = (Instant) dateTime;
+			long epochSecond = instant.getEpochSecond();
+			long epochDay = Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+			int secondOfDay = (int) Math.floorMod(epochSecond, SECONDS_PER_DAY);
+			index = formatEpochDay(epochDay, chars, index);
+			if (index < 0)
+				return -1;
+			index = formatTime(secondOfDay / 3600, secondOfDay / 60 % 60, secondOfDay % 60, instant.getNano(), chars,
+					index);
+			chars[index++] = 'Z';
+			return index;
+		}
+		return -1;
+	}
+
+	/**
+	 * Formats a date as YYYY-MM-DD.
+	 *
+	 * @return the index after the last written char, or -1 if the year isn't between 0 and 9999
+	 */
+	private static int formatDate(int year, int month, int day, char[] chars, int index) {
+		if (year < 0 || year > 9999)
+			return -1;// the DATE_FORMATTER adds a sign in this case
+		index = formatDigits(year, 4, chars, index);
+		chars[index++] = '-';
+		index = formatDigits(month, 2, chars, index);
+		chars[index++] = '-';
+		return formatDigits(day, 2, chars, index);
+	}
+
+	/**
+	 * Formats the date of a number of days since 1970-01-01, with the algorithm of Howard Hinnant's
+	 * civil_from_days.
+	 */
+	private static int formatEpochDay(long epochDay, char[] chars, int index) {
+		long z = epochDay + 719468;// days since 0000-03-01
+		long era = Math.floorDiv(z, 146097L);
+		int dayOfEra = (int) (z - era * 146097);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);// from March 1st
+		int mp = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		int month = (mp < 10) ? mp + 3 : mp - 9;
+		long year = yearOfEra + era * 400 + ((month <= 2) ? 1 : 0);
+		if (year < 0 || year > 9999)
+			return -1;
+		return formatDate((int) year, month, day, chars, index);
+	}
+
+	/**
+	 * Formats a time as THH:MM:SS, followed by the fraction of second without its trailing zeros if it isn't zero.
+	 */
+	private static int formatTime(int hour, int minute, int second, int nano, char[] chars, int index) {
+		chars[index++] = 'T';
+		index = formatDigits(hour, 2, chars, index);
+		chars[index++] = ':';
+		index = formatDigits(minute, 2, chars, index);
+		chars[index++] = ':';
+		index = formatDigits(second, 2, chars, index);
+		if (nano != 0) {
+			chars[index++] = '.';
+			int digits = 9;
+			while (nano % 10 == 0) {
+				nano /= 10;
+				digits--;
+			}
+			index = formatDigits(nano, digits, chars, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Writes the id of an offset, which is 'Z' or like +01:00. The ZoneOffset keeps its id, so this doesn't
+	 * create any String.
+	 */
+	private static int formatOffset(ZoneOffset offset, char[] chars, int index) {
+		String id = offset.getId();
+		id.getChars(0, id.length(), chars, index);
+		return index + id.length();
+	}
+
+	/**
+	 * Writes a positive number with a fixed number of digits, padded with zeros.
+	 */
+	private static int formatDigits(int value, int count, char[] chars, int index) {
+		for (int i = index + count - 1; i >= index; i--) {
+			chars[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return index + count;
+	}
+
+	/**
+	 * Reads a positive decimal number of known length.
+	 *
+	 * @return the number, or -1 if a character isn't a digit
+	 */
+	private static int digits(CharSequence data, int start, int count) {
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			int digit = data.charAt(i) - '0';
+			if (digit < 0 || digit > 9)
+				return -1;
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+}
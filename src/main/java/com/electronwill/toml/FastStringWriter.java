@@ -1,24 +1,72 @@
 package com.electronwill.toml;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
 /**
- * A Writer writing in a StringBuilder. This is NOT Thread safe.
+ * A Writer writing in memory. This is NOT Thread safe.
+ * <p>
+ * By default, the chars are written in a list of chunks, which are never copied while writing. The chunks are taken
+ * from a pool kept by the current thread, and given back by {@link #release()}. The content can be drained by
+ * {@link #writeTo(Writer)}, {@link #writeTo(OutputStream)} or {@link #writeTo(ByteBuffer)} without building a
+ * String.
+ * </p>
+ * <p>
+ * A FastStringWriter created with a given StringBuilder appends everything to it instead.
+ * </p>
  * 
  * @author TheElectronWill
  */
 public class FastStringWriter extends Writer {
 	
+	// The chunks have a size of 2^n chars, from MIN_CHUNK_SIZE to MAX_CHUNK_SIZE. Each size is a class of the pool.
+	private static final int MIN_CHUNK_SHIFT = 10, MAX_CHUNK_SHIFT = 16;
+	private static final int MIN_CHUNK_SIZE = 1 << MIN_CHUNK_SHIFT;
+	static final int MAX_CHUNK_SIZE = 1 << MAX_CHUNK_SHIFT;
+	
+	/**
+	 * The maximum number of chunks of each size kept by the pool of each thread.
+	 */
+	private static final int MAX_POOLED_CHUNKS = 4;
+	
+	private static final ThreadLocal<ChunkPool> POOL = ThreadLocal.withInitial(ChunkPool::new);
+	
+	private static final char[] NO_CHARS = {};
+	
 	/**
-	 * The underlying StringBuilder. Everything is appended to it.
+	 * The underlying StringBuilder, or null if the chars are written in chunks.
 	 */
-	private final StringBuilder sb;
+	private StringBuilder sb;
+	
+	private final boolean chunked;// false if the writer was created with a StringBuilder
+	private final int sizeHint;
+	private char[] chunk = NO_CHARS;// the current chunk
+	private int position;// the position in the current chunk
+	private char[][] fullChunks = new char[4][];// the previous chunks, which are full
+	private int fullCount, fullLength;// the number of full chunks, and the number of chars in them
 	
 	/**
-	 * Creates a new FastStringWriter with a default StringBuilder
+	 * Creates a new FastStringWriter that writes in chunks.
 	 */
 	public FastStringWriter() {
-		sb = new StringBuilder();
+		this(0);
+	}
+	
+	/**
+	 * Creates a new FastStringWriter that writes in chunks, with an expected size. The first chunk can contain
+	 * this number of chars, up to 65536, so that a small content isn't split and is copied only once by
+	 * {@link #toString()}. See {@link TomlWriter#estimateLength(java.util.Map)} to estimate the size of some TOML
+	 * data.
+	 *
+	 * @param sizeHint the expected number of chars
+	 */
+	public FastStringWriter(int sizeHint) {
+		this.chunked = true;
+		this.sizeHint = sizeHint;
 	}
 	
 	/**
@@ -28,63 +76,231 @@ public class FastStringWriter extends Writer {
 	 */
 	public FastStringWriter(StringBuilder sb) {
 		this.sb = sb;
+		this.chunked = false;
+		this.sizeHint = 0;
 	}
 	
 	/**
-	 * Returns the underlying StringBuilder.
+	 * Returns the underlying StringBuilder. If this writer writes in chunks, the content is first copied to a new
+	 * StringBuilder, to which everything is appended until {@link #release()} is called.
 	 *
 	 * @return the underlying StringBuilder
 	 */
 	public StringBuilder getBuilder() {
+		if (sb == null) {
+			StringBuilder builder = new StringBuilder(length() + 16);
+			for (int i = 0; i < fullCount; i++) {
+				builder.append(fullChunks[i]);
+			}
+			builder.append(chunk, 0, position);
+			release();
+			sb = builder;
+		}
 		return sb;
 	}
 	
 	/**
-	 * Returns the content of the underlying StringBuilder, as a String. Equivalent to {@link #getBuilder()#toString()}.
+	 * Returns the number of chars written.
 	 *
-	 * @return the content of the underlying StringBuilder
+	 * @return the length of the content
+	 */
+	public int length() {
+		return (sb == null) ? fullLength + position : sb.length();
+	}
+	
+	/**
+	 * Returns the content of this writer, as a String. If the content is in one chunk, it's copied only once.
+	 *
+	 * @return the content of this writer
 	 */
 	@Override
 	public String toString() {
-		return sb.toString();
+		if (sb != null)
+			return sb.toString();
+		if (fullCount == 0)
+			return new String(chunk, 0, position);
+		// The StringBuilder stores the Latin-1 chars in one byte each, unlike an array of chars
+		StringBuilder builder = new StringBuilder(fullLength + position);
+		for (int i = 0; i < fullCount; i++) {
+			builder.append(fullChunks[i]);
+		}
+		builder.append(chunk, 0, position);
+		return builder.toString();
+	}
+	
+	/**
+	 * Writes the content of this writer to another Writer.
+	 *
+	 * @param out where to write the content
+	 * @throws IOException if an error occurs
+	 */
+	public void writeTo(Writer out) throws IOException {
+		if (sb != null) {
+			out.write(sb.toString());
+			return;
+		}
+		for (int i = 0; i < fullCount; i++) {
+			out.write(fullChunks[i]);
+		}
+		out.write(chunk, 0, position);
+	}
+	
+	/**
+	 * Writes the content of this writer to an OutputStream, with the UTF-8 encoding. The OutputStream isn't
+	 * flushed.
+	 *
+	 * @param out where to write the content
+	 * @throws IOException if an error occurs
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		ByteBuffer buffer = Toml.takeWriteBuffer();
+		try {
+			Utf8Writer utf8 = new Utf8Writer(buffer, out);
+			writeTo(utf8);
+			utf8.finish();
+		} finally {
+			Toml.keepWriteBuffer(buffer);
+		}
+	}
+	
+	/**
+	 * Writes the content of this writer to a ByteBuffer, with the UTF-8 encoding.
+	 *
+	 * @param out where to write the content
+	 * @throws java.nio.BufferOverflowException if there isn't enough space in the buffer. Some of the content may
+	 *         have been written anyway.
+	 */
+	public void writeTo(ByteBuffer out) {
+		WritableByteChannel channel = new WritableByteChannel() {
+			@Override
+			public int write(ByteBuffer src) {
+				int length = src.remaining();
+				out.put(src);
+				return length;
+			}
+			
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+			
+			@Override
+			public void close() {}
+		};
+		ByteBuffer buffer = Toml.takeWriteBuffer();
+		try {
+			Utf8Writer utf8 = new Utf8Writer(buffer, channel);
+			writeTo(utf8);
+			utf8.finish();
+		} catch (IOException e) {// never thrown by this channel
+			throw new AssertionError(e);
+		} finally {
+			Toml.keepWriteBuffer(buffer);
+		}
+	}
+	
+	/**
+	 * Empties this writer and gives its chunks back to the pool of the current thread. The writer can then be
+	 * reused. This does nothing to a writer created with a given StringBuilder.
+	 */
+	public void release() {
+		if (!chunked)
+			return;
+		sb = null;// detaches the StringBuilder returned by getBuilder(), if any
+		ChunkPool pool = POOL.get();
+		for (int i = 0; i < fullCount; i++) {
+			pool.give(fullChunks[i]);
+			fullChunks[i] = null;
+		}
+		pool.give(chunk);
+		chunk = NO_CHARS;
+		position = 0;
+		fullCount = 0;
+		fullLength = 0;
 	}
 	
 	@Override
 	public FastStringWriter append(char c) {
-		sb.append(c);
+		write(c);
 		return this;
 	}
 	
 	@Override
 	public FastStringWriter append(CharSequence csq, int start, int end) {
-		sb.append(csq, start, end);
+		if (sb != null) {
+			sb.append(csq, start, end);
+		} else if (csq == null) {
+			write("null", start, end - start);
+		} else if (csq instanceof String) {
+			write((String) csq, start, end - start);
+		} else {
+			for (int i = start; i < end; i++) {
+				write(csq.charAt(i));
+			}
+		}
 		return this;
 	}
 	
 	@Override
 	public FastStringWriter append(CharSequence csq) {
-		sb.append(csq);
-		return this;
+		if (sb != null) {
+			sb.append(csq);
+			return this;
+		}
+		return append(csq, 0, (csq == null) ? 4 : csq.length());
 	}
 	
 	@Override
 	public void write(String str, int off, int len) {
-		sb.append(str, off, off + len);
+		if (sb != null) {
+			sb.append(str, off, off + len);
+			return;
+		}
+		int end = off + len;
+		while (off < end) {
+			if (position == chunk.length) {
+				nextChunk();
+			}
+			int n = Math.min(end - off, chunk.length - position);
+			str.getChars(off, off + n, chunk, position);
+			position += n;
+			off += n;
+		}
 	}
 	
 	@Override
 	public void write(String str) {
-		sb.append(str);
+		write(str, 0, str.length());
 	}
 	
 	@Override
 	public void write(char[] cbuf, int off, int len) {
-		sb.append(cbuf, off, len);
+		if (sb != null) {
+			sb.append(cbuf, off, len);
+			return;
+		}
+		int end = off + len;
+		while (off < end) {
+			if (position == chunk.length) {
+				nextChunk();
+			}
+			int n = Math.min(end - off, chunk.length - position);
+			System.arraycopy(cbuf, off, chunk, position, n);
+			position += n;
+			off += n;
+		}
 	}
 	
 	@Override
 	public void write(int c) {
-		sb.append(c);
+		if (sb != null) {
+			sb.append((char) c);
+			return;
+		}
+		if (position == chunk.length) {
+			nextChunk();
+		}
+		chunk[position++] = (char) c;
 	}
 	
 	/**
@@ -94,9 +310,64 @@ public class FastStringWriter extends Writer {
 	public void flush() {}
 	
 	/**
-	 * This method does nothing.
+	 * This method does nothing. The content of the writer is still available after it, until {@link #release()}
+	 * is called.
 	 */
 	@Override
 	public void close() {}
 	
+	/**
+	 * Adds the current chunk, which is full, to the list and starts a new one. Each new chunk is as big as the
+	 * content, up to MAX_CHUNK_SIZE, so that the small contents have only a few chunks.
+	 */
+	private void nextChunk() {
+		int size;
+		if (chunk == NO_CHARS) {// the first chunk
+			size = Math.min(sizeHint, MAX_CHUNK_SIZE);
+		} else {
+			if (fullCount == fullChunks.length) {
+				fullChunks = Arrays.copyOf(fullChunks, fullCount * 2);
+			}
+			fullChunks[fullCount++] = chunk;
+			fullLength += chunk.length;
+			size = Math.min(fullLength, MAX_CHUNK_SIZE);
+		}
+		chunk = POOL.get().take(size);
+		position = 0;
+	}
+	
+	/**
+	 * The chunks kept by a thread, by size.
+	 */
+	private static final class ChunkPool {
+		private final char[][][] chunks = new char[MAX_CHUNK_SHIFT - MIN_CHUNK_SHIFT + 1][MAX_POOLED_CHUNKS][];
+		private final int[] counts = new int[chunks.length];
+		
+		/**
+		 * Returns a chunk of at least the given size, which must not be bigger than MAX_CHUNK_SIZE.
+		 */
+		char[] take(int minSize) {
+			int shift = 32 - Integer.numberOfLeadingZeros(Math.max(minSize, MIN_CHUNK_SIZE) - 1);
+			int sizeClass = shift - MIN_CHUNK_SHIFT;
+			int count = counts[sizeClass];
+			if (count == 0)
+				return new char[1 << shift];
+			counts[sizeClass] = --count;
+			char[] chunk = chunks[sizeClass][count];
+			chunks[sizeClass][count] = null;
+			return chunk;
+		}
+		
+		void give(char[] chunk) {
+			if (chunk == NO_CHARS)
+				return;
+			int sizeClass = Integer.numberOfTrailingZeros(chunk.length) - MIN_CHUNK_SHIFT;
+			int count = counts[sizeClass];
+			if (count < MAX_POOLED_CHUNKS) {
+				chunks[sizeClass][count] = chunk;
+				counts[sizeClass] = count + 1;
+			}
+		}
+	}
+	
 }
@@ -0,0 +1,162 @@
+package com.electronwill.toml;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A TOML document whose values are parsed on demand. The {@link TomlReader} reads the structure of the document
+ * and only records where each value begins. The value is parsed the first time it's accessed, then it replaces
+ * the recorded position in its table.
+ * <p>
+ * The tables of a LazyTomlDocument are normal {@code Map<String, Object>}. The values are parsed and stored back
+ * in their table while holding the lock of the document, and they're always read with that lock, so the tables may
+ * be read by several threads at the same time, as long as they aren't modified.
+ * </p>
+ *
+ * @author TheElectronWill
+ */
+final class LazyTomlDocument {
+
+	/**
+	 * The reader used to parse the values. It's never used to read the structure of the document.
+	 */
+	private final TomlReader valueReader;
+
+	LazyTomlDocument(TomlReader valueReader) {
+		this.valueReader = valueReader;
+	}
+
+	/**
+	 * Creates a new table of this document.
+	 */
+	Map<String, Object> newTable() {
+		return new Table();
+	}
+
+	/**
+	 * Creates a placeholder for a value that hasn't been parsed yet.
+	 *
+	 * @param index the index of the first character of the value
+	 * @param line the line of the first character of the value
+	 */
+	Object newValue(int index, int line) {
+		return new LazyValue(index, line);
+	}
+
+	/**
+	 * The position of a value that hasn't been parsed yet.
+	 */
+	private static final class LazyValue {
+		final int index, line;
+
+		LazyValue(int index, int line) {
+			this.index = index;
+			this.line = line;
+		}
+	}
+
+	/**
+	 * Returns the actual value, parsing it if needed. Must be called with the lock of the document.
+	 */
+	private Object parsed(Object value) {
+		if (value instanceof LazyValue) {
+			LazyValue lazy = (LazyValue) value;
+			return valueReader.valueAt(lazy.index, lazy.line);
+		}
+		return value;
+	}
+
+	/**
+	 * A table that parses its values when they're accessed.
+	 */
+	private final class Table extends AbstractMap<String, Object> {
+
+		private final Map<String, Object> map = new HashMap<>();
+		private Set<Map.Entry<String, Object>> entrySet;
+
+		@Override
+		public Object get(Object key) {
+			synchronized (LazyTomlDocument.this) {
+				Object value = map.get(key);
+				if (value instanceof LazyValue) {
+					value = parsed(value);
+					map.put((String) key, value);
+				}
+				return value;
+			}
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return map.containsKey(key);
+		}
+
+		@Override
+		public Object put(String key, Object value) {
+			synchronized (LazyTomlDocument.this) {
+				return parsed(map.put(key, value));
+			}
+		}
+
+		@Override
+		public Object remove(Object key) {
+			synchronized (LazyTomlDocument.this) {
+				return parsed(map.remove(key));
+			}
+		}
+
+		@Override
+		public int size() {
+			return map.size();
+		}
+
+		@Override
+		public void clear() {
+			map.clear();
+		}
+
+		@Override
+		public Set<Map.Entry<String, Object>> entrySet() {
+			if (entrySet == null) {
+				entrySet = new AbstractSet<Map.Entry<String, Object>>() {
+					@Override
+					public Iterator<Map.Entry<String, Object>> iterator() {
+						Iterator<Map.Entry<String, Object>> it = map.entrySet().iterator();
+						return new Iterator<Map.Entry<String, Object>>() {
+							@Override
+							public boolean hasNext() {
+								return it.hasNext();
+							}
+
+							@Override
+							public Map.Entry<String, Object> next() {
+								Map.Entry<String, Object> entry = it.next();
+								synchronized (LazyTomlDocument.this) {
+									if (entry.getValue() instanceof LazyValue)
+										entry.setValue(parsed(entry.getValue()));
+								}
+								return entry;
+							}
+
+							@Override
+							public void remove() {
+								it.remove();
+							}
+						};
+					}
+
+					@Override
+					public int size() {
+						return map.size();
+					}
+				};
+			}
+			return entrySet;
+		}
+	}
+
+}
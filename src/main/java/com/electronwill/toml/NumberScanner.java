@@ -0,0 +1,225 @@
+package com.electronwill.toml;
+
+/**
+ * Parses TOML integers and decimals directly from the characters of the data, without creating any intermediate
+ * object. The result of the last scan is kept in the scanner's fields, so it can be read without boxing. This is
+ * NOT Thread safe: each reader has its own scanner.
+ *
+ * @author TheElectronWill
+ */
+final class NumberScanner {
+
+	/**
+	 * Kinds of scanned values.
+	 */
+	static final int INVALID = 0, INTEGER = 1, LONG = 2, DOUBLE = 3;
+
+	/**
+	 * The powers of ten that are exactly representable as doubles.
+	 */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * The maximum number of significant digits kept in the mantissa of a decimal. With more digits, the mantissa
+	 * could overflow.
+	 */
+	private static final int MAX_MANTISSA_DIGITS = 18;
+
+	/**
+	 * The kind of the last scanned value: INVALID, INTEGER, LONG or DOUBLE.
+	 */
+	int kind;
+
+	/**
+	 * The value of the last scanned integer, if its kind is INTEGER or LONG.
+	 */
+	long longValue;
+
+	/**
+	 * The value of the last scanned decimal, if its kind is DOUBLE.
+	 */
+	double doubleValue;
+
+	/**
+	 * Scans an integer or a decimal. Underscores are ignored. Like Integer.parseInt, the result is an INTEGER if
+	 * it has less than 10 characters, a LONG otherwise.
+	 *
+	 * @param data the data containing the number
+	 * @param start the index of the first character of the number, inclusive
+	 * @param end the index of the last character of the number, exclusive
+	 * @return the kind of the number, INVALID if the characters don't represent a number or if it doesn't fit in
+	 *         a long
+	 */
+	int scan(CharSequence data, int start, int end) {
+		for (int i = start; i < end; i++) {
+			char c = data.charAt(i);
+			if (c == '.' || c == 'e' || c == 'E')
+				return kind = scanDouble(data, start, end);
+		}
+		return kind = scanInteger(data, start, end);
+	}
+
+	/**
+	 * Returns the last scanned value as an object.
+	 *
+	 * @return an Integer, a Long or a Double
+	 */
+	Object value() {
+		switch (kind) {
+			case INTEGER:
+				return (int) longValue;
+			case LONG:
+				return longValue;
+			case DOUBLE:
+				return doubleValue;
+			default:
+				throw new IllegalStateException("No valid number has been scanned");
+		}
+	}
+
+	private int scanInteger(CharSequence data, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		char first = data.charAt(i);
+		if (first == '-' || first == '+') {
+			negative = (first == '-');
+			i++;
+		}
+		// Accumulates negatively, like Long.parseLong, to be able to represent Long.MIN_VALUE
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long multmin = limit / 10;
+		long result = 0;
+		int length = i - start;// the number of characters without the underscores
+		boolean hasDigits = false;
+		for (; i < end; i++) {
+			char c = data.charAt(i);
+			if (c == '_')
+				continue;
+			int digit = c - '0';
+			if (digit < 0 || digit > 9 || result < multmin)
+				return INVALID;
+			result *= 10;
+			if (result < limit + digit)
+				return INVALID;// overflow
+			result -= digit;
+			length++;
+			hasDigits = true;
+		}
+		if (!hasDigits)
+			return INVALID;
+		longValue = negative ? result : -result;
+		return (length < 10) ? INTEGER : LONG;
+	}
+
+	private int scanDouble(CharSequence data, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		char c = data.charAt(i);
+		if (c == '-' || c == '+') {
+			negative = (c == '-');
+			i++;
+		}
+		long mantissa = 0;
+		int mantissaDigits = 0, exponent = 0;
+		boolean truncated = false, hasDigits = false;
+
+		// Integer part
+		for (; i < end; i++) {
+			c = data.charAt(i);
+			int digit = c - '0';
+			if (digit >= 0 && digit <= 9) {
+				hasDigits = true;
+				if (mantissaDigits < MAX_MANTISSA_DIGITS) {
+					mantissa = mantissa * 10 + digit;
+					if (mantissa != 0)
+						mantissaDigits++;
+				} else {
+					exponent++;
+					truncated |= (digit != 0);
+				}
+			} else if (c != '_') {
+				break;
+			}
+		}
+		if (!hasDigits)
+			return INVALID;
+
+		// Fractional part
+		if (i < end && c == '.') {
+			for (i++; i < end; i++) {
+				c = data.charAt(i);
+				int digit = c - '0';
+				if (digit >= 0 && digit <= 9) {
+					if (mantissaDigits < MAX_MANTISSA_DIGITS) {
+						mantissa = mantissa * 10 + digit;
+						if (mantissa != 0)
+							mantissaDigits++;
+						exponent--;
+					} else {
+						truncated |= (digit != 0);
+					}
+				} else if (c != '_') {
+					break;
+				}
+			}
+		}
+
+		// Exponent part
+		if (i < end && (c == 'e' || c == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (data.charAt(i) == '-' || data.charAt(i) == '+')) {
+				negativeExponent = (data.charAt(i) == '-');
+				i++;
+			}
+			int explicitExponent = 0;
+			boolean hasExponentDigits = false;
+			for (; i < end; i++) {
+				c = data.charAt(i);
+				int digit = c - '0';
+				if (digit >= 0 && digit <= 9) {
+					hasExponentDigits = true;
+					if (explicitExponent < 100_000)// way beyond the range of doubles
+						explicitExponent = explicitExponent * 10 + digit;
+				} else if (c != '_') {
+					break;
+				}
+			}
+			if (!hasExponentDigits)
+				return INVALID;
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+		if (i != end)
+			return INVALID;
+
+		double value;
+		if (mantissa == 0) {
+			value = 0.0;
+		} else if (!truncated && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+			// Both the mantissa and the power of ten are exact, so the result is correctly rounded
+			value = (exponent >= 0) ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+		} else {
+			value = parseDoubleSlowly(data, start, end);
+			doubleValue = value;
+			return DOUBLE;
+		}
+		doubleValue = negative ? -value : value;
+		return DOUBLE;
+	}
+
+	/**
+	 * Parses a decimal that can't be exactly computed by scanDouble. This is only needed for numbers with many
+	 * significant digits or with a big exponent.
+	 */
+	private static double parseDoubleSlowly(CharSequence data, int start, int end) {
+		StringBuilder sb = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			char c = data.charAt(i);
+			if (c != '_')
+				sb.append(c);
+		}
+		return Double.parseDouble(sb.toString());
+	}
+
+}
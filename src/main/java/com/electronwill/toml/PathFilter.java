@@ -0,0 +1,126 @@
+package com.electronwill.toml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects the values to extract from TOML data, according to their dotted paths. A path like "server.port"
+ * selects the value at this path, with its content if it's a table. A path ending with ".*", like "db.pool.*",
+ * selects all the values in the table at this path.
+ *
+ * @author TheElectronWill
+ */
+final class PathFilter {
+
+	/**
+	 * The value isn't selected, nor any of its content.
+	 */
+	static final int SKIPPED = 0;
+
+	/**
+	 * The value isn't selected, but some of its content is.
+	 */
+	static final int PARTIAL = 1;
+
+	/**
+	 * The value is selected, with all its content.
+	 */
+	static final int SELECTED = 2;
+
+	private final String[][] paths;
+	private final boolean[] wildcards;
+
+	/**
+	 * Creates a new PathFilter.
+	 *
+	 * @param dottedPaths the paths of the values to select
+	 */
+	PathFilter(String... dottedPaths) {
+		paths = new String[dottedPaths.length][];
+		wildcards = new boolean[dottedPaths.length];
+		for (int i = 0; i < dottedPaths.length; i++) {
+			String path = dottedPaths[i];
+			if (path.endsWith(".*")) {
+				wildcards[i] = true;
+				path = path.substring(0, path.length() - 2);
+			}
+			paths[i] = path.split("\\.", -1);
+		}
+	}
+
+	/**
+	 * Checks if a value is selected.
+	 *
+	 * @param parent the path of the table that contains the value
+	 * @param key the key of the value, or null to check the table itself
+	 * @return SKIPPED, PARTIAL or SELECTED
+	 */
+	int match(List<String> parent, String key) {
+		int length = (key == null) ? parent.size() : parent.size() + 1;
+		int result = SKIPPED;
+		pathsLoop: for (int p = 0; p < paths.length; p++) {
+			String[] path = paths[p];
+			int common = Math.min(length, path.length);
+			for (int i = 0; i < common; i++) {
+				String part = (i < parent.size()) ? parent.get(i) : key;
+				if (!part.equals(path[i]))
+					continue pathsLoop;
+			}
+			if (length > path.length || (length == path.length && !wildcards[p]))
+				return SELECTED;// the value is at or below a selected path
+			result = PARTIAL;// the value is above a selected path
+		}
+		return result;
+	}
+
+	/**
+	 * Removes the content that isn't selected from a value that is PARTIAL.
+	 *
+	 * @param parent the path of the table that contains the value
+	 * @param key the key of the value
+	 * @param value the value
+	 * @return the selected content, or null if nothing is selected
+	 */
+	Object prune(List<String> parent, String key, Object value) {
+		ArrayList<String> path = new ArrayList<>(parent.size() + 4);
+		path.addAll(parent);
+		path.add(key);
+		return prune(path, value);
+	}
+
+	private Object prune(ArrayList<String> path, Object value) {
+		if (value instanceof Map) {
+			Map<?, ?> table = (Map<?, ?>) value;
+			Map<String, Object> result = new HashMap<>();
+			for (Map.Entry<?, ?> entry : table.entrySet()) {
+				String key = (String) entry.getKey();
+				int selection = match(path, key);
+				if (selection == SELECTED) {
+					result.put(key, entry.getValue());
+				} else if (selection == PARTIAL) {
+					path.add(key);
+					Object pruned = prune(path, entry.getValue());
+					path.remove(path.size() - 1);
+					if (pruned != null)
+						result.put(key, pruned);
+				}
+			}
+			return result.isEmpty() ? null : result;
+		}
+		if (value instanceof List) {// keeps the tables of an array of tables, even the empty ones
+			List<?> list = (List<?>) value;
+			if (list.isEmpty() || !(list.get(0) instanceof Map))
+				return null;
+			List<Object> result = new ArrayList<>(list.size());
+			for (Object element : list) {
+				Object pruned = prune(path, element);
+				result.add(pruned == null ? new HashMap<>(0) : pruned);
+			}
+			return result;
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,381 @@
+package com.electronwill.toml;
+
+import com.electronwill.toml.TomlEventReader.Event;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterates over the elements of an array of tables, which are parsed by a {@link TomlEventReader} one at a time.
+ * Only the current element is held in memory, so an array of any size can be read. The other parts of the data are
+ * skipped.
+ * <p>
+ * If an Executor is given, the elements are parsed in advance by a task of the executor, and up to
+ * {@link #PREFETCH_SIZE} of them wait in a queue until they are pulled. They're put in the queue by batches, so
+ * that the two threads don't have to synchronize for each element.
+ * </p>
+ *
+ * @author TheElectronWill
+ */
+final class TableArrayIterator implements Iterator<Map<String, Object>>, Closeable {
+
+	/**
+	 * The maximum number of elements parsed in advance by the background task.
+	 */
+	static final int PREFETCH_SIZE = 256;
+
+	/**
+	 * The number of elements put at once in the queue.
+	 */
+	private static final int BATCH_SIZE = 32;
+
+	private static final Object END = new Object();// marks the end of the elements in the queue
+
+	private final TomlEventReader reader;
+	private final String[] path;
+	private final boolean compactTables;
+	private Event pendingEvent;// an event that has been read but not handled yet, or null
+	private Map<String, Object> next;// the next element, or null if it hasn't been parsed yet
+	private boolean ended = false;
+
+	private final BlockingQueue<Object> queue;// the batches parsed in background, or null
+	private volatile Object[] lastBatch;// the last batch, if the task couldn't put it in the queue
+	private Object[] batch;// the batch that is being consumed
+	private int batchIndex, batchSize;
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a new TableArrayIterator.
+	 *
+	 * @param reader the reader to read the data from. It's closed by the iterator.
+	 * @param path the parts of the name of the array of tables
+	 * @param executor the executor that parses the elements in background, or null to parse them when they're
+	 *        pulled
+	 * @param compactTables true to return compact and read-only tables, false to return HashMaps
+	 */
+	TableArrayIterator(TomlEventReader reader, String[] path, Executor executor, boolean compactTables) {
+		this.reader = reader;
+		this.path = path;
+		this.compactTables = compactTables;
+		if (executor == null) {
+			queue = null;
+		} else {
+			queue = new ArrayBlockingQueue<>(PREFETCH_SIZE / BATCH_SIZE);
+			try {
+				executor.execute(this::parseAll);
+			} catch (RuntimeException e) {// RejectedExecutionException for example
+				try {
+					reader.close();
+				} catch (IOException closeError) {
+					e.addSuppressed(closeError);
+				}
+				throw e;
+			}
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null && !ended) {
+			Map<String, Object> element = (queue == null) ? parseNextOrThrow() : takeNext();
+			if (element == null) {
+				ended = true;
+				close();
+			}
+			next = element;
+		}
+		return next != null;
+	}
+
+	@Override
+	public Map<String, Object> next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		Map<String, Object> element = next;
+		next = null;// releases the element
+		return element;
+	}
+
+	/**
+	 * Closes the reader. If the elements are parsed in background, stops the task, which then closes the reader.
+	 */
+	@Override
+	public void close() {
+		ended = true;
+		next = null;
+		if (closed)
+			return;
+		closed = true;
+		if (queue == null) {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		} else {
+			queue.clear();// unblocks the task if the queue is full
+		}
+	}
+
+	private Map<String, Object> parseNextOrThrow() {
+		try {
+			return parseNext();
+		} catch (IOException e) {
+			close();
+			throw new UncheckedIOException(e);
+		} catch (RuntimeException | Error e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Takes the next element parsed by the background task.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> takeNext() {
+		if (batchIndex == batchSize) {
+			Object[] newBatch;
+			try {
+				newBatch = takeBatch();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new UncheckedIOException(new InterruptedIOException("Interrupted while waiting for an element"));
+			}
+			batch = newBatch;
+			batchIndex = 0;
+			batchSize = newBatch.length;
+		}
+		Object element = batch[batchIndex];
+		batch[batchIndex++] = null;// releases the element
+		if (element == END)
+			return null;
+		if (element instanceof Throwable) {
+			close();
+			if (element instanceof IOException)
+				throw new UncheckedIOException((IOException) element);
+			if (element instanceof Error)
+				throw (Error) element;
+			throw (RuntimeException) element;
+		}
+		return (Map<String, Object>) element;
+	}
+
+	/**
+	 * Takes the next batch from the queue, or the last batch if the task couldn't put it in the queue.
+	 */
+	private Object[] takeBatch() throws InterruptedException {
+		while (true) {
+			Object[] last = lastBatch;// read before polling: the batches before it are already in the queue
+			Object[] polled = (Object[]) queue.poll(100, TimeUnit.MILLISECONDS);
+			if (polled != null)
+				return polled;
+			if (last != null)
+				return last;
+		}
+	}
+
+	/**
+	 * Parses all the elements and puts them in the queue by batches, with END or the error after the last element.
+	 * This is the background task.
+	 */
+	private void parseAll() {
+		Object[] batch = new Object[BATCH_SIZE];
+		int size = 0;
+		try {
+			Map<String, Object> element;
+			while (!closed && (element = parseNext()) != null) {
+				batch[size++] = element;
+				if (size == BATCH_SIZE) {
+					if (!offer(batch)) {// closed, or interrupted: the error becomes the last batch
+						batch = new Object[1];
+						size = 0;
+						throw new InterruptedIOException("Interrupted while parsing the elements");
+					}
+					batch = new Object[BATCH_SIZE];
+					size = 0;
+				}
+			}
+			batch[size++] = END;
+		} catch (Throwable e) {
+			batch[size++] = e;
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				if (size > 0 && batch[size - 1] == END)
+					batch[size - 1] = e;
+			}
+		}
+		Object[] last = Arrays.copyOf(batch, size);
+		if (!offer(last))
+			lastBatch = last;// taken by the iterator when the queue is empty, so the END or the error isn't lost
+	}
+
+	/**
+	 * Puts something in the queue, waiting for some space if necessary, unless the iterator is closed.
+	 *
+	 * @return true if it has been put in the queue, false if the iterator is closed or the thread is interrupted
+	 */
+	private boolean offer(Object o) {
+		try {
+			while (!closed) {
+				if (queue.offer(o, 100, TimeUnit.MILLISECONDS))
+					return true;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	/**
+	 * Parses the next element of the array of tables.
+	 *
+	 * @return the element, or null if there is no more element
+	 */
+	private Map<String, Object> parseNext() throws IOException {
+		// Skips everything until the next [[path]]
+		Event event = (pendingEvent == null) ? reader.next() : pendingEvent;
+		pendingEvent = null;
+		while (event != Event.START_TABLE_ARRAY || !isArrayPath(reader.getTablePath())) {
+			if (event == Event.END_DOCUMENT)
+				return null;
+			event = reader.next();
+		}
+		// Reads the element, including its sub-tables like [path.sub] and [[path.sub]]
+		Map<String, Object> element = newTable();
+		Map<String, Object> table = element;
+		while (true) {
+			event = reader.next();
+			if (event == Event.KEY) {
+				String key = reader.getKey();
+				put(table, key, readValue(reader.next()));
+			} else if (event == Event.START_TABLE || event == Event.START_TABLE_ARRAY) {
+				List<String> tablePath = reader.getTablePath();
+				if (!isInElement(tablePath)) {
+					pendingEvent = event;
+					break;
+				}
+				table = subTable(element, tablePath, event == Event.START_TABLE_ARRAY);
+			} else {// END_DOCUMENT
+				pendingEvent = event;
+				break;
+			}
+		}
+		if (compactTables)
+			CompactTable.freeze(element);
+		return element;
+	}
+
+	private Object readValue(Event event) throws IOException {
+		if (event == Event.START_ARRAY) {
+			List<Object> list = new ArrayList<>();
+			while ((event = reader.next()) != Event.END_ARRAY) {
+				list.add(readValue(event));
+			}
+			return list;
+		}
+		if (event == Event.START_INLINE_TABLE) {
+			Map<String, Object> table = newTable();
+			while (reader.next() != Event.END_INLINE_TABLE) {// the event is a KEY
+				String key = reader.getKey();
+				put(table, key, readValue(reader.next()));
+			}
+			return table;
+		}
+		return reader.getValue();
+	}
+
+	private Map<String, Object> newTable() {
+		return compactTables ? new CompactTable() : new HashMap<>();
+	}
+
+	/**
+	 * Gets or creates the table of the element that has the given path.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> subTable(Map<String, Object> element, List<String> tablePath, boolean isArray) {
+		Map<String, Object> table = element;
+		int last = tablePath.size() - 1;
+		for (int i = path.length; i < last; i++) {
+			String name = tablePath.get(i);
+			Object value = table.get(name);
+			if (value == null) {
+				Map<String, Object> child = newTable();
+				table.put(name, child);
+				table = child;
+			} else if (value instanceof Map) {
+				table = (Map<String, Object>) value;
+			} else if (value instanceof List && !((List<?>) value).isEmpty() && ((List<?>) value).get(0) instanceof Map) {
+				List<Map<String, Object>> tableArray = (List<Map<String, Object>>) value;
+				table = tableArray.get(tableArray.size() - 1);
+			} else {
+				throw duplicateKey(name);
+			}
+		}
+		String name = tablePath.get(last);
+		Object value = table.get(name);
+		Map<String, Object> child;
+		if (isArray) {
+			List<Object> tableArray;
+			if (value == null) {
+				tableArray = new ArrayList<>(2);
+				table.put(name, tableArray);
+			} else if (value instanceof List) {
+				tableArray = (List<Object>) value;
+			} else {
+				throw duplicateKey(name);
+			}
+			child = newTable();
+			tableArray.add(child);
+		} else if (value == null) {
+			child = newTable();
+			table.put(name, child);
+		} else if (value instanceof Map) {// already created by a table like [path.name.other]
+			child = (Map<String, Object>) value;
+		} else {
+			throw duplicateKey(name);
+		}
+		return child;
+	}
+
+	private void put(Map<String, Object> table, String key, Object value) {
+		if (table.put(key, value) != null)
+			throw duplicateKey(key);
+	}
+
+	private TomlException duplicateKey(String key) {
+		return new TomlException("Duplicate key \"" + key + "\" at line " + reader.getLine());
+	}
+
+	private boolean isArrayPath(List<String> tablePath) {
+		return tablePath.size() == path.length && startsWithPath(tablePath);
+	}
+
+	private boolean isInElement(List<String> tablePath) {
+		return tablePath.size() > path.length && startsWithPath(tablePath);
+	}
+
+	private boolean startsWithPath(List<String> tablePath) {
+		for (int i = 0; i < path.length; i++) {
+			if (!path[i].equals(tablePath.get(i)))
+				return false;
+		}
+		return true;
+	}
+
+}
@@ -1,22 +1,35 @@
 package com.electronwill.toml;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.io.Writer;
-import java.nio.charset.StandardCharsets;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Utility class for reading and writing TOML v0.4.0. This class internally uses {@link TomlReader} and
@@ -71,9 +84,53 @@ public final class Toml {
 			.optionalEnd()
 			.toFormatter();
 
+	private static volatile TomlStringCache stringCache;
+	private static volatile boolean cacheStringValues;
+	private static volatile boolean compactTables = true;
+
 	private Toml() {
 	}
 
+	/**
+	 * Sets the cache of Strings used by the read methods of this class. By default there is no cache. With a cache,
+	 * the identical keys of all the data read by this class are stored only once, see {@link TomlStringCache}.
+	 *
+	 * @param cache the cache, or null to use no cache
+	 * @param cacheValues true to cache the string values, false to cache only the keys
+	 */
+	public static void setStringCache(TomlStringCache cache, boolean cacheValues) {
+		cacheStringValues = cacheValues;
+		stringCache = cache;
+	}
+
+	/**
+	 * Returns the cache of Strings used by the read methods of this class.
+	 *
+	 * @return the cache, or null if there is no cache
+	 */
+	public static TomlStringCache getStringCache() {
+		return stringCache;
+	}
+
+	/**
+	 * Sets whether the read methods of this class return compact and read-only tables. Default is true, see
+	 * {@link TomlReader#setCompactTables(boolean)}. With false, the tables are modifiable HashMaps.
+	 *
+	 * @param compact true to return compact and read-only tables, false to return HashMaps
+	 */
+	public static void setCompactTables(boolean compact) {
+		compactTables = compact;
+	}
+
+	/**
+	 * Returns whether the read methods of this class return compact and read-only tables.
+	 *
+	 * @return true if the tables are compact and read-only, false if they're HashMaps
+	 */
+	public static boolean isCompactTables() {
+		return compactTables;
+	}
+
 	/**
 	 * Writes the specified data to a String, in the TOML format.
 	 *
@@ -82,9 +139,14 @@ public final class Toml {
 	 * @throws IOException if an error occurs
 	 */
 	public static String writeToString(Map<String, Object> data) throws IOException {
-		FastStringWriter writer = new FastStringWriter();
-		write(data, writer);
-		return writer.toString();
+		int sizeHint = TomlWriter.estimateLength(data, FastStringWriter.MAX_CHUNK_SIZE);
+		FastStringWriter writer = new FastStringWriter(sizeHint);
+		try {
+			new TomlWriter(writer).write(data);
+			return writer.toString();
+		} finally {
+			writer.release();
+		}
 	}
 
 	/**
@@ -97,8 +159,67 @@ public final class Toml {
 	 * @throws IOException if an error occurs
 	 */
 	public static void write(Map<String, Object> data, File file) throws IOException {
-		FileOutputStream out = new FileOutputStream(file);
-		write(data, out);
+		write(data, file.toPath());
+	}
+
+	/**
+	 * Writes data to a file, in the TOML format and with the UTF-8 encoding. The default indentation parameters are
+	 * used, ie each indent is one tab character. The data is encoded in a buffer kept by the current thread, and
+	 * written to the file in big chunks.
+	 *
+	 * @param data the data to write
+	 * @param file where to write the data
+	 * @throws IOException if an error occurs
+	 */
+	public static void write(Map<String, Object> data, Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ThreadScratch scratch = THREAD_SCRATCH.get();
+			ByteBuffer buffer = scratch.takeWriteBuffer();
+			try {
+				write(data, new Utf8Writer(buffer, channel));
+			} finally {
+				scratch.keepWriteBuffer(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Writes data to a file, in parallel, in the TOML format and with the UTF-8 encoding. The default indentation
+	 * parameters are used, ie each indent is one tab character.
+	 *
+	 * @param data the data to write
+	 * @param file where to write the data
+	 * @throws IOException if an error occurs
+	 * @see TomlWriter#writeParallel(Map, ForkJoinPool)
+	 */
+	public static void writeParallel(Map<String, Object> data, Path file) throws IOException {
+		writeParallel(data, file, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Writes data to a file, in parallel, in the TOML format and with the UTF-8 encoding. The top-level tables are
+	 * written by the given pool, see {@link TomlWriter#writeParallel(Map, ForkJoinPool)}, and the file is exactly
+	 * the same as with {@link #write(Map, Path)}.
+	 *
+	 * @param data the data to write
+	 * @param file where to write the data
+	 * @param pool the pool that writes the tables
+	 * @throws IOException if an error occurs
+	 */
+	public static void writeParallel(Map<String, Object> data, Path file, ForkJoinPool pool) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ThreadScratch scratch = THREAD_SCRATCH.get();
+			ByteBuffer buffer = scratch.takeWriteBuffer();
+			try {
+				TomlWriter tw = new TomlWriter(new Utf8Writer(buffer, channel));
+				tw.writeParallel(data, pool);
+				tw.close();
+			} finally {
+				scratch.keepWriteBuffer(buffer);
+			}
+		}
 	}
 
 	/**
@@ -111,8 +232,13 @@ public final class Toml {
 	 * @throws TomlException if a parse error occurs
 	 */
 	public static void write(Map<String, Object> data, OutputStream out) throws IOException {
-		OutputStreamWriter writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
-		write(data, writer);
+		ThreadScratch scratch = THREAD_SCRATCH.get();
+		ByteBuffer buffer = scratch.takeWriteBuffer();
+		try {
+			write(data, new Utf8Writer(buffer, out));
+		} finally {
+			scratch.keepWriteBuffer(buffer);
+		}
 	}
 
 	/**
@@ -170,8 +296,23 @@ public final class Toml {
 	 * @throws TomlException if a parse error occurs
 	 */
 	public static Map<String, Object> read(String toml, boolean strictAsciiBareKeys) {
-		TomlReader tr = new TomlReader(toml, strictAsciiBareKeys);
-		return tr.read();
+		return readWithThreadReader(toml, strictAsciiBareKeys);
+	}
+
+	/**
+	 * Reads a String that contains untrusted TOML data, with some limits.
+	 *
+	 * @param toml a String containing TOML data
+	 * @param strictAsciiBareKeys <code>true</code> to enforce strict bare keys (see {@link Toml}).
+	 * @param limits the limits of the data
+	 * @return a {@code Map<String, Object>} containing the parsed data
+	 * @throws TomlLimitException if a limit is exceeded
+	 * @throws TomlException if a parse error occurs
+	 */
+	public static Map<String, Object> read(String toml, boolean strictAsciiBareKeys, TomlReaderLimits limits) {
+		TomlReader tr = THREAD_SCRATCH.get().reader(strictAsciiBareKeys);
+		tr.reset(toml);
+		return readAndRelease(tr, limits);
 	}
 
 	/**
@@ -196,7 +337,339 @@ public final class Toml {
 	 * @throws TomlException if a parse error occurs
 	 */
 	public static Map<String, Object> read(File file, boolean strictAsciiBareKeys) throws IOException, TomlException {
-		return read(new FileInputStream(file), strictAsciiBareKeys);
+		return read(file.toPath(), strictAsciiBareKeys);
+	}
+
+	/**
+	 * Reads TOML data from an UTF-8 encoded file. Lenient bare keys are allowed (see {@link Toml}).
+	 *
+	 * @param file the file to read data from
+	 * @return a {@code Map<String, Object>} containing the parsed data
+	 * @throws IOException if a read error occurs
+	 * @throws TomlException if a parse error occurs
+	 */
+	public static Map<String, Object> read(Path file) throws IOException, TomlException {
+		return read(file, false);
+	}
+
+	/**
+	 * Reads TOML data from an UTF-8 encoded file. The bytes of the file are parsed directly, without being converted
+	 * to chars first. The big files are mapped in memory, the others are copied to a buffer of the current thread.
+	 *
+	 * @param file the file to read data from
+	 * @param strictAsciiBareKeys <code>true</code> to enforce strict bare keys (see {@link Toml}).
+	 * @return a {@code Map<String, Object>} containing the parsed data
+	 * @throws IOException if a read error occurs
+	 * @throws TomlException if a parse error occurs
+	 */
+	public static Map<String, Object> read(Path file, boolean strictAsciiBareKeys) throws IOException, TomlException {
+		return readWithThreadReader(load(file), strictAsciiBareKeys, stringCache, cacheStringValues);
+	}
+
+	/**
+	 * Reads UTF-8 encoded TOML data from a ByteBuffer. Lenient bare keys are allowed (see {@link Toml}).
+	 *
+	 * @param buffer the buffer to read data from
+	 * @return a {@code Map<String, Object>} containing the parsed data
+	 * @throws TomlException if a parse error occurs
+	 */
+	public static Map<String, Object> read(ByteBuffer buffer) throws TomlException {
+		return read(buffer, false);
+	}
+
+	/**
+	 * Reads UTF-8 encoded TOML data from a ByteBuffer. The remaining bytes of the buffer are parsed directly,
+	 * without being converted to chars first, and the buffer's position is not modified.
+	 *
+	 * @param buffer the buffer to read data from
+	 * @param strictAsciiBareKeys <code>true</code> to enforce strict bare keys (see {@link Toml}).
+	 * @return a {@code Map<String, Object>} containing the parsed data
+	 * @throws TomlException if a parse error occurs
+	 */
+	public static Map<String, Object> read(ByteBuffer buffer, boolean strictAsciiBareKeys) throws TomlException {
+		return readWithThreadReader(buffer, strictAsciiBareKeys, stringCache, cacheStringValues);
+	}
+
+	/**
+	 * Reads a String that contains TOML data, lazily. Lenient bare keys are allowed (see {@link Toml}).
+	 *
+	 * @param toml a String containing TOML data
+	 * @return a {@code Map<String, Object>} containing the data
+	 * @throws TomlException if a parse error occurs
+	 * @see TomlReader#readLazy()
+	 */
+	public static Map<String, Object> readLazy(String toml) throws TomlException {
+		return readLazy(toml, false);
+	}
+
+	/**
+	 * Reads a String that contains TOML data, lazily. The values are only parsed when they're accessed for the
+	 * first time, see {@link TomlReader#readLazy()}.
+	 *
+	 * @param toml a String containing TOML data
+	 * @param strictAsciiBareKeys <code>true</code> to enforce strict bare keys (see {@link Toml}).
+	 * @return a {@code Map<String, Object>} containing the data
+	 * @throws TomlException if a parse error occurs
+	 */
+	public static Map<String, Object> readLazy(String toml, boolean strictAsciiBareKeys) throws TomlException {
+		TomlReader tr = new TomlReader(toml, strictAsciiBareKeys);
+		tr.setCompactTables(compactTables);
+		return tr.readLazy();
+	}
+
+	/**
+	 * Reads TOML data from an UTF-8 encoded file, lazily. Lenient bare keys are allowed (see {@link Toml}).
+	 *
+	 * @param file the file to read data from
+	 * @return a {@code Map<String, Object>} containing the data
+	 * @throws IOException if a read error occurs
+	 * @throws TomlException if a parse error occurs
+	 * @see TomlReader#readLazy()
+	 */
+	public static Map<String, Object> readLazy(Path file) throws IOException, TomlException {
+		return readLazy(file, false);
+	}
+
+	/**
+	 * Reads TOML data from an UTF-8 encoded file, lazily. The values are only parsed when they're accessed for the
+	 * first time, see {@link TomlReader#readLazy()}. The bytes of the file are copied in memory, so that the values
+	 * don't depend on the file after this method returns.
+	 *
+	 * @param file the file to read data from
+	 * @param strictAsciiBareKeys <code>true</code> to enforce strict bare keys (see {@link Toml}).
+	 * @return a {@code Map<String, Object>} containing the data
+	 * @throws IOException if a read error occurs
+	 * @throws TomlException if a parse error occurs
+	 */
+	public static Map<String, Object> readLazy(Path file, boolean strictAsciiBareKeys) throws IOException, TomlException {
+		// not mapped: the document would keep reading the file, which may change or be truncated afterwards
+		TomlReader tr = new TomlReader(ByteBuffer.wrap(Files.readAllBytes(file)), strictAsciiBareKeys);
+		tr.setCompactTables(compactTables);
+		return tr.readLazy();
+	}
+
+	/**
+	 * Reads TOML data from an UTF-8 encoded file, in parallel. Lenient bare keys are allowed (see {@link Toml}).
+	 *
+	 * @param file the file to read data from
+	 * @return a {@code Map<String, Object>} containing the parsed data
+	 * @throws IOException if a read error occurs
+	 * @throws TomlException if a parse error occurs
+	 * @see TomlReader#readParallel(ForkJoinPool)
+	 */
+	public static Map<String, Object> readParallel(Path file) throws IOException, TomlException {
+		return readParallel(file, false, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Reads TOML data from an UTF-8 encoded file, in parallel. The contents of its tables are parsed by the given
+	 * pool, see {@link TomlReader#readParallel(ForkJoinPool)}. The big files are mapped in memory, the others are
+	 * copied to a buffer of the current thread.
+	 *
+	 * @param file the file to read data from
+	 * @param strictAsciiBareKeys <code>true</code> to enforce strict bare keys (see {@link Toml}).
+	 * @param pool the pool that parses the tables
+	 * @return a {@code Map<String, Object>} containing the parsed data
+	 * @throws IOException if a read error occurs
+	 * @throws TomlException if a parse error occurs
+	 */
+	public static Map<String, Object> readParallel(Path file, boolean strictAsciiBareKeys, ForkJoinPool pool)
+			throws IOException, TomlException {
+		TomlReader tr = new TomlReader(load(file), strictAsciiBareKeys);
+		tr.setCompactTables(compactTables);
+		return tr.readParallel(pool);
+	}
+
+	/**
+	 * Reads several UTF-8 encoded files concurrently. Lenient bare keys are allowed (see {@link Toml}).
+	 *
+	 * @param files the files to read data from
+	 * @param executor the executor that reads the files
+	 * @return a Map containing the result of each file, in the order of the collection
+	 * @see #readAll(Collection, boolean, Executor)
+	 */
+	public static Map<Path, TomlReadResult> readAll(Collection<Path> files, Executor executor) {
+		return readAll(files, false, executor);
+	}
+
+	/**
+	 * Reads several UTF-8 encoded files concurrently, with the given executor. An error in a file doesn't stop the
+	 * reading of the other files: it's kept in the file's result. The keys are shared by all the files, so that
+	 * identical keys are stored only once: they're taken from the cache of this class if there is one (see
+	 * {@link #setStringCache(TomlStringCache, boolean)}), or from a new cache otherwise.
+	 * <p>
+	 * Each thread of the executor keeps a buffer to read the files, so this works best with a pool of threads.
+	 * </p>
+	 *
+	 * @param files the files to read data from
+	 * @param strictAsciiBareKeys <code>true</code> to enforce strict bare keys (see {@link Toml}).
+	 * @param executor the executor that reads the files
+	 * @return a Map containing the result of each file, in the order of the collection
+	 */
+	public static Map<Path, TomlReadResult> readAll(Collection<Path> files, boolean strictAsciiBareKeys, Executor executor) {
+		TomlStringCache cache = stringCache;
+		TomlStringCache batchCache = (cache == null) ? new TomlStringCache() : cache;
+		boolean cacheValues = (cache != null) && cacheStringValues;
+		Map<Path, CompletableFuture<TomlReadResult>> futures = new LinkedHashMap<>();
+		for (Path file : files) {
+			if (!futures.containsKey(file))
+				futures.put(file, CompletableFuture.supplyAsync(() -> readResult(file, strictAsciiBareKeys, batchCache, cacheValues), executor));
+		}
+		Map<Path, TomlReadResult> results = new LinkedHashMap<>();
+		for (Map.Entry<Path, CompletableFuture<TomlReadResult>> entry : futures.entrySet()) {
+			results.put(entry.getKey(), entry.getValue().join());
+		}
+		return results;
+	}
+
+	/**
+	 * Checks a String that contains TOML data, without reading it. Lenient bare keys are allowed (see {@link Toml}).
+	 *
+	 * @param toml a String containing TOML data
+	 * @return the errors, or an empty list if the data is valid
+	 * @see TomlReader#validate()
+	 */
+	public static List<TomlException> validate(String toml) {
+		return validate(toml, false);
+	}
+
+	/**
+	 * Checks a String that contains TOML data, without reading it. All the errors are returned, with their line and
+	 * column, see {@link TomlReader#validate()}.
+	 *
+	 * @param toml a String containing TOML data
+	 * @param strictAsciiBareKeys <code>true</code> to enforce strict bare keys (see {@link Toml}).
+	 * @return the errors, or an empty list if the data is valid
+	 */
+	public static List<TomlException> validate(String toml, boolean strictAsciiBareKeys) {
+		TomlReader tr = THREAD_SCRATCH.get().reader(strictAsciiBareKeys);
+		tr.reset(toml);
+		return validateAndRelease(tr);
+	}
+
+	/**
+	 * Checks an UTF-8 encoded file that contains TOML data, without reading it. Lenient bare keys are allowed (see
+	 * {@link Toml}).
+	 *
+	 * @param file the file to check
+	 * @return the errors, or an empty list if the data is valid
+	 * @throws IOException if a read error occurs
+	 * @see TomlReader#validate()
+	 */
+	public static List<TomlException> validate(Path file) throws IOException {
+		return validate(file, false);
+	}
+
+	/**
+	 * Checks an UTF-8 encoded file that contains TOML data, without reading it. All the errors are returned, with
+	 * their line and column, see {@link TomlReader#validate()}.
+	 *
+	 * @param file the file to check
+	 * @param strictAsciiBareKeys <code>true</code> to enforce strict bare keys (see {@link Toml}).
+	 * @return the errors, or an empty list if the data is valid
+	 * @throws IOException if a read error occurs
+	 */
+	public static List<TomlException> validate(Path file, boolean strictAsciiBareKeys) throws IOException {
+		ByteBuffer data = load(file);
+		TomlReader tr = THREAD_SCRATCH.get().reader(strictAsciiBareKeys);
+		tr.reset(data);
+		return validateAndRelease(tr);
+	}
+
+	/**
+	 * Extracts some values from a String that contains TOML data. Lenient bare keys are allowed (see
+	 * {@link Toml}). Only the values at the given paths are parsed, see {@link TomlReader#extract(String...)}.
+	 *
+	 * @param toml a String containing TOML data
+	 * @param paths the dotted paths of the values to extract, like "server.port" or "db.pool.*"
+	 * @return a {@code Map<String, Object>} containing the extracted data
+	 * @throws TomlException if a parse error occurs
+	 */
+	public static Map<String, Object> extract(String toml, String... paths) throws TomlException {
+		TomlReader tr = new TomlReader(toml, false);
+		tr.setCompactTables(compactTables);
+		return tr.extract(paths);
+	}
+
+	/**
+	 * Extracts some values from an UTF-8 encoded file. Lenient bare keys are allowed (see {@link Toml}). Only the
+	 * values at the given paths are parsed, see {@link TomlReader#extract(String...)}. The big files are mapped in
+	 * memory, the others are copied to a buffer of the current thread.
+	 *
+	 * @param file the file to read data from
+	 * @param paths the dotted paths of the values to extract, like "server.port" or "db.pool.*"
+	 * @return a {@code Map<String, Object>} containing the extracted data
+	 * @throws IOException if a read error occurs
+	 * @throws TomlException if a parse error occurs
+	 */
+	public static Map<String, Object> extract(Path file, String... paths) throws IOException, TomlException {
+		TomlReader tr = new TomlReader(load(file), false);
+		tr.setCompactTables(compactTables);
+		return tr.extract(paths);
+	}
+
+	/**
+	 * Streams the elements of an array of tables from an UTF-8 encoded file. Lenient bare keys are allowed (see
+	 * {@link Toml}).
+	 *
+	 * @param file the file to read data from
+	 * @param name the dotted name of the array of tables, like "item" for [[item]]
+	 * @return a Stream of the elements, which must be closed to close the file
+	 * @throws IOException if the file can't be opened
+	 * @see #streamTableArray(Reader, String, boolean, Executor)
+	 */
+	public static Stream<Map<String, Object>> streamTableArray(Path file, String name) throws IOException {
+		return streamTableArray(file, name, false, null);
+	}
+
+	/**
+	 * Streams the elements of an array of tables from an UTF-8 encoded file, see
+	 * {@link #streamTableArray(Reader, String, boolean, Executor)}.
+	 *
+	 * @param file the file to read data from
+	 * @param name the dotted name of the array of tables, like "item" for [[item]]
+	 * @param strictAsciiBareKeys <code>true</code> to enforce strict bare keys (see {@link Toml}).
+	 * @param executor the executor that parses the elements in advance, or null to parse them when they're pulled
+	 * @return a Stream of the elements, which must be closed to close the file
+	 * @throws IOException if the file can't be opened
+	 */
+	public static Stream<Map<String, Object>> streamTableArray(Path file, String name, boolean strictAsciiBareKeys,
+			Executor executor) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		return streamTableArray(new TomlEventReader(channel, strictAsciiBareKeys), name, executor);
+	}
+
+	/**
+	 * Streams the elements of an array of tables, declared with [[name]]. Each element is parsed only when it's
+	 * pulled from the Stream, with its sub-tables like [name.sub], so the memory used doesn't depend on the number
+	 * of elements. The other parts of the data are skipped. An array of tables written as an inline array isn't
+	 * streamed.
+	 * <p>
+	 * If an executor is given, the elements are parsed in advance by a task of the executor, while the previous ones
+	 * are processed. At most 256 elements are parsed in advance.
+	 * </p>
+	 * <p>
+	 * The read errors are thrown as {@link UncheckedIOException}s, and the parse errors as {@link TomlException}s,
+	 * when the element that contains them is pulled. The Reader is closed at the end of the data, or when the Stream
+	 * is closed.
+	 * </p>
+	 *
+	 * @param reader the Reader to read data from
+	 * @param name the dotted name of the array of tables, like "item" for [[item]]
+	 * @param strictAsciiBareKeys <code>true</code> to enforce strict bare keys (see {@link Toml}).
+	 * @param executor the executor that parses the elements in advance, or null to parse them when they're pulled
+	 * @return a Stream of the elements, which must be closed to close the Reader
+	 */
+	public static Stream<Map<String, Object>> streamTableArray(Reader reader, String name, boolean strictAsciiBareKeys,
+			Executor executor) {
+		return streamTableArray(new TomlEventReader(reader, strictAsciiBareKeys), name, executor);
+	}
+
+	private static Stream<Map<String, Object>> streamTableArray(TomlEventReader reader, String name, Executor executor) {
+		TableArrayIterator iterator = new TableArrayIterator(reader, name.split("\\.", -1), executor, compactTables);
+		Spliterator<Map<String, Object>> spliterator = Spliterators.spliteratorUnknownSize(iterator,
+				Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(spliterator, false).onClose(iterator::close);
 	}
 
 	/**
@@ -221,7 +694,51 @@ public final class Toml {
 	 * @throws TomlException if a parse error occurs
 	 */
 	public static Map<String, Object> read(InputStream in, boolean strictAsciiBareKeys) throws IOException, TomlException {
-		return read(new InputStreamReader(in, StandardCharsets.UTF_8), in.available(), strictAsciiBareKeys);
+		ThreadScratch scratch = THREAD_SCRATCH.get();
+		byte[] buf = scratch.bytes(in.available());
+		int size = 0, read;
+		while ((read = in.read(buf, size, buf.length - size)) != -1) {
+			size += read;
+			if (size == buf.length)
+				buf = Arrays.copyOf(buf, size * 2);
+		}
+		scratch.keep(buf);
+		return readWithThreadReader(ByteBuffer.wrap(buf, 0, size), strictAsciiBareKeys, stringCache, cacheStringValues);
+	}
+
+	/**
+	 * Reads untrusted TOML data from an UTF-8 encoded InputStream, with some limits. The reading of the stream
+	 * stops as soon as the maximum size of the data is exceeded.
+	 *
+	 * @param in the InputStream to read data from
+	 * @param strictAsciiBareKeys <code>true</code> to enforce strict bare keys (see {@link Toml}).
+	 * @param limits the limits of the data
+	 * @return a {@code Map<String, Object>} containing the parsed data
+	 * @throws IOException if a read error occurs
+	 * @throws TomlLimitException if a limit is exceeded
+	 * @throws TomlException if a parse error occurs
+	 */
+	public static Map<String, Object> read(InputStream in, boolean strictAsciiBareKeys, TomlReaderLimits limits)
+			throws IOException, TomlException {
+		int maxSize = limits.getMaxDocumentSize();
+		ThreadScratch scratch = THREAD_SCRATCH.get();
+		byte[] buf = scratch.bytes(Math.min(in.available(), maxSize));
+		int end = (int) Math.min(buf.length, maxSize + 1L);// reads at most one byte more than the limit
+		int size = 0, read;
+		while ((read = in.read(buf, size, end - size)) != -1) {
+			size += read;
+			if (size > maxSize)
+				throw new TomlLimitException("Too big document: its size exceeds the limit of " + maxSize, maxSize, -1, -1,
+						true);
+			if (size == end) {
+				buf = Arrays.copyOf(buf, (int) Math.min(size * 2L, Math.min(maxSize + 1L, Integer.MAX_VALUE)));
+				end = buf.length;
+			}
+		}
+		scratch.keep(buf);
+		TomlReader tr = scratch.reader(strictAsciiBareKeys);
+		tr.reset(ByteBuffer.wrap(buf, 0, size));
+		return readAndRelease(tr, limits);
 	}
 
 	/**
@@ -235,14 +752,206 @@ public final class Toml {
 	 * @throws TomlException if a parse error occurs
 	 */
 	public static Map<String, Object> read(Reader reader, int bufferSize, boolean strictAsciiBareKeys) throws IOException, TomlException {
-		StringBuilder sb = new StringBuilder(bufferSize);
-		char[] buf = new char[8192];
+		ThreadScratch scratch = THREAD_SCRATCH.get();
+		StringBuilder sb = scratch.builder(bufferSize);
+		char[] buf = scratch.chars;
 		int read;
 		while ((read = reader.read(buf)) != -1) {
 			sb.append(buf, 0, read);
 		}
-		TomlReader tr = new TomlReader(sb.toString(), strictAsciiBareKeys);
-		return tr.read();
+		try {
+			return readWithThreadReader(sb, strictAsciiBareKeys);
+		} finally {
+			scratch.keep(sb);
+		}
+	}
+
+	/**
+	 * Returns the bytes of a file, for a method that doesn't keep them after it returns. The small files are copied
+	 * to the buffer of the thread, which is faster than mapping them and doesn't keep the file mapped until the
+	 * next GC. The bigger ones are mapped in memory.
+	 */
+	private static ByteBuffer load(Path file) throws IOException {
+		return (Files.size(file) <= MAX_THREAD_BUFFER_SIZE) ? readToThreadBuffer(file) : map(file);
+	}
+
+	/**
+	 * Maps a file in memory.
+	 */
+	private static ByteBuffer map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File too big to be mapped in memory: " + file);
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+	}
+
+	/**
+	 * The maximum size of the buffers kept by each thread. A bigger buffer is used only once.
+	 */
+	private static final int MAX_THREAD_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * The size of the buffers used to write UTF-8 data.
+	 */
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private static final ThreadLocal<ThreadScratch> THREAD_SCRATCH = ThreadLocal.withInitial(ThreadScratch::new);
+
+	/**
+	 * The readers and the buffers kept by each thread, so that reading data doesn't create them each time.
+	 */
+	private static final class ThreadScratch {
+		final TomlReader lenientReader = new TomlReader("", false);
+		final TomlReader strictReader = new TomlReader("", true);
+		final char[] chars = new char[8192];
+		byte[] bytes;
+		StringBuilder builder;
+		ByteBuffer writeBuffer;
+
+		TomlReader reader(boolean strictAsciiBareKeys) {
+			return strictAsciiBareKeys ? strictReader : lenientReader;
+		}
+
+		/**
+		 * Returns a byte array of at least the given size, which is the kept one if it's big enough.
+		 */
+		byte[] bytes(int minSize) {
+			if (bytes != null && bytes.length >= minSize)
+				return bytes;
+			return new byte[Math.max(minSize, 8192)];
+		}
+
+		/**
+		 * Returns an empty StringBuilder, which is the kept one if there is one.
+		 */
+		StringBuilder builder(int minCapacity) {
+			if (builder == null)
+				return new StringBuilder(minCapacity);
+			builder.setLength(0);
+			builder.ensureCapacity(minCapacity);
+			return builder;
+		}
+
+		void keep(byte[] bytes) {
+			if (bytes.length <= MAX_THREAD_BUFFER_SIZE)
+				this.bytes = bytes;
+		}
+
+		void keep(StringBuilder builder) {
+			builder.setLength(0);
+			this.builder = (builder.capacity() <= MAX_THREAD_BUFFER_SIZE) ? builder : null;
+		}
+
+		/**
+		 * Returns the write buffer of this thread, or a new one if it's already in use. The buffer is given back with
+		 * {@link #keepWriteBuffer(ByteBuffer)}.
+		 */
+		ByteBuffer takeWriteBuffer() {
+			ByteBuffer buffer = writeBuffer;
+			writeBuffer = null;
+			return (buffer != null) ? buffer : ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+		}
+
+		void keepWriteBuffer(ByteBuffer buffer) {
+			((Buffer) buffer).clear();
+			writeBuffer = buffer;
+		}
+	}
+
+	/**
+	 * Returns the write buffer of the current thread, see {@link ThreadScratch#takeWriteBuffer()}.
+	 */
+	static ByteBuffer takeWriteBuffer() {
+		return THREAD_SCRATCH.get().takeWriteBuffer();
+	}
+
+	/**
+	 * Gives back a buffer returned by {@link #takeWriteBuffer()}.
+	 */
+	static void keepWriteBuffer(ByteBuffer buffer) {
+		THREAD_SCRATCH.get().keepWriteBuffer(buffer);
+	}
+
+	/**
+	 * Reads some data with the reader of the current thread.
+	 */
+	private static Map<String, Object> readWithThreadReader(CharSequence data, boolean strictAsciiBareKeys) {
+		TomlReader tr = THREAD_SCRATCH.get().reader(strictAsciiBareKeys);
+		tr.reset(data);
+		return readAndRelease(tr, stringCache, cacheStringValues);
+	}
+
+	/**
+	 * Reads some UTF-8 encoded bytes with the reader of the current thread.
+	 */
+	private static Map<String, Object> readWithThreadReader(ByteBuffer data, boolean strictAsciiBareKeys, TomlStringCache cache,
+			boolean cacheValues) {
+		TomlReader tr = THREAD_SCRATCH.get().reader(strictAsciiBareKeys);
+		tr.reset(data);
+		return readAndRelease(tr, cache, cacheValues);
+	}
+
+	private static Map<String, Object> readAndRelease(TomlReader tr, TomlStringCache cache, boolean cacheValues) {
+		tr.setStringCache(cache, cacheValues);
+		tr.setCompactTables(compactTables);
+		try {
+			return tr.read();
+		} finally {
+			tr.setStringCache(null, false);
+			tr.release();
+		}
+	}
+
+	private static List<TomlException> validateAndRelease(TomlReader tr) {
+		try {
+			return tr.validate();
+		} finally {
+			tr.release();
+		}
+	}
+
+	private static Map<String, Object> readAndRelease(TomlReader tr, TomlReaderLimits limits) {
+		tr.setLimits(limits);
+		try {
+			return readAndRelease(tr, stringCache, cacheStringValues);
+		} finally {
+			tr.setLimits(TomlReaderLimits.NONE);
+		}
+	}
+
+	/**
+	 * Reads a file, for {@link #readAll(Collection, boolean, Executor)}.
+	 */
+	private static TomlReadResult readResult(Path file, boolean strictAsciiBareKeys, TomlStringCache cache, boolean cacheValues) {
+		try {
+			ByteBuffer data = readToThreadBuffer(file);
+			return new TomlReadResult(file, readWithThreadReader(data, strictAsciiBareKeys, cache, cacheValues), null);
+		} catch (IOException | RuntimeException ex) {
+			return new TomlReadResult(file, null, ex);
+		}
+	}
+
+	/**
+	 * Reads all the bytes of a file in the buffer of the current thread. The content of the returned ByteBuffer is
+	 * only valid until the next call of this method by the same thread.
+	 */
+	private static ByteBuffer readToThreadBuffer(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File too big to be read in memory: " + file);
+			ThreadScratch scratch = THREAD_SCRATCH.get();
+			byte[] bytes = scratch.bytes((int) size);
+			scratch.keep(bytes);
+			ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, (int) size);
+			while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+				// reads until the buffer is full or the end of the file is reached
+			}
+			((Buffer) buffer).flip();// cast: Java 8 has no ByteBuffer overrides
+			return buffer;
+		}
 	}
 
 }
@@ -0,0 +1,181 @@
+package com.electronwill.toml;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Lists of numbers backed by primitive arrays. They're returned by a {@link TomlReader} for the arrays of
+ * numbers, when {@link TomlReader#setPrimitiveArrays(boolean)} is enabled. They take much less memory than lists
+ * of boxed numbers, and the numbers can be read without unboxing with {@code getInt}, {@code getLong} and
+ * {@code getDouble}, or directly in the backing array.
+ * <p>
+ * Like {@link java.util.Arrays#asList(Object[])}, the lists have a fixed size but their elements may be replaced.
+ * The {@link TomlWriter} writes them like the other lists.
+ * </p>
+ *
+ * @author TheElectronWill
+ */
+public final class TomlArrays {
+
+	private TomlArrays() {}
+
+	/**
+	 * A list of Integers backed by an {@code int[]}.
+	 */
+	public static final class IntList extends AbstractList<Integer> implements RandomAccess {
+
+		private final int[] array;
+
+		/**
+		 * Creates a new IntList backed by the given array. The array isn't copied.
+		 *
+		 * @param array the backing array
+		 */
+		public IntList(int[] array) {
+			this.array = array;
+		}
+
+		/**
+		 * Returns the backing array. Modifications of the array are visible in the list and vice-versa.
+		 *
+		 * @return the backing array
+		 */
+		public int[] array() {
+			return array;
+		}
+
+		/**
+		 * Returns the element at the given position, without boxing it.
+		 *
+		 * @param index the index of the element
+		 * @return the element
+		 */
+		public int getInt(int index) {
+			return array[index];
+		}
+
+		@Override
+		public Integer get(int index) {
+			return array[index];
+		}
+
+		@Override
+		public Integer set(int index, Integer element) {
+			int old = array[index];
+			array[index] = element;
+			return old;
+		}
+
+		@Override
+		public int size() {
+			return array.length;
+		}
+	}
+
+	/**
+	 * A list of Longs backed by a {@code long[]}.
+	 */
+	public static final class LongList extends AbstractList<Long> implements RandomAccess {
+
+		private final long[] array;
+
+		/**
+		 * Creates a new LongList backed by the given array. The array isn't copied.
+		 *
+		 * @param array the backing array
+		 */
+		public LongList(long[] array) {
+			this.array = array;
+		}
+
+		/**
+		 * Returns the backing array. Modifications of the array are visible in the list and vice-versa.
+		 *
+		 * @return the backing array
+		 */
+		public long[] array() {
+			return array;
+		}
+
+		/**
+		 * Returns the element at the given position, without boxing it.
+		 *
+		 * @param index the index of the element
+		 * @return the element
+		 */
+		public long getLong(int index) {
+			return array[index];
+		}
+
+		@Override
+		public Long get(int index) {
+			return array[index];
+		}
+
+		@Override
+		public Long set(int index, Long element) {
+			long old = array[index];
+			array[index] = element;
+			return old;
+		}
+
+		@Override
+		public int size() {
+			return array.length;
+		}
+	}
+
+	/**
+	 * A list of Doubles backed by a {@code double[]}.
+	 */
+	public static final class DoubleList extends AbstractList<Double> implements RandomAccess {
+
+		private final double[] array;
+
+		/**
+		 * Creates a new DoubleList backed by the given array. The array isn't copied.
+		 *
+		 * @param array the backing array
+		 */
+		public DoubleList(double[] array) {
+			this.array = array;
+		}
+
+		/**
+		 * Returns the backing array. Modifications of the array are visible in the list and vice-versa.
+		 *
+		 * @return the backing array
+		 */
+		public double[] array() {
+			return array;
+		}
+
+		/**
+		 * Returns the element at the given position, without boxing it.
+		 *
+		 * @param index the index of the element
+		 * @return the element
+		 */
+		public double getDouble(int index) {
+			return array[index];
+		}
+
+		@Override
+		public Double get(int index) {
+			return array[index];
+		}
+
+		@Override
+		public Double set(int index, Double element) {
+			double old = array[index];
+			array[index] = element;
+			return old;
+		}
+
+		@Override
+		public int size() {
+			return array.length;
+		}
+	}
+
+}
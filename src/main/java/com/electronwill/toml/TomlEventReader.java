@@ -0,0 +1,736 @@
+package com.electronwill.toml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pull-parser for TOML v0.4.0. Unlike the {@link TomlReader}, the TomlEventReader never holds the entire data: it
+ * reads its input through a fixed-size buffer, so the memory it uses doesn't depend on the size of the data.
+ * <p>
+ * Each call to {@link #next()} returns the next {@link Event} of the document. Depending on the event, the table
+ * path, the key or the value is then given by {@link #getTablePath()}, {@link #getKey()} or {@link #getValue()}.
+ * The values are parsed like the TomlReader does, with the same datetimes and bare keys support.
+ * </p>
+ * <p>
+ * Because it doesn't keep what it has already read, the TomlEventReader doesn't check that the keys are unique.
+ * This is left to the caller.
+ * </p>
+ *
+ * @author TheElectronWill
+ */
+public final class TomlEventReader implements Closeable {
+
+	/**
+	 * The events returned by {@link TomlEventReader#next()}.
+	 */
+	public static enum Event {
+		/**
+		 * A table declaration like [a.b]. Its path is given by {@link TomlEventReader#getTablePath()}.
+		 */
+		START_TABLE,
+		/**
+		 * A new element of an array of tables, like [[a.b]]. Its path is given by
+		 * {@link TomlEventReader#getTablePath()}.
+		 */
+		START_TABLE_ARRAY,
+		/**
+		 * A key, given by {@link TomlEventReader#getKey()}. It's always followed by a VALUE, a START_ARRAY or a
+		 * START_INLINE_TABLE event.
+		 */
+		KEY,
+		/**
+		 * A simple value (String, number, boolean or datetime), given by {@link TomlEventReader#getValue()}.
+		 */
+		VALUE,
+		/**
+		 * The beginning of an array. The elements of the array follow, then an END_ARRAY event.
+		 */
+		START_ARRAY,
+		/**
+		 * The end of an array.
+		 */
+		END_ARRAY,
+		/**
+		 * The beginning of an inline table. The content of the table follows, then an END_INLINE_TABLE event.
+		 */
+		START_INLINE_TABLE,
+		/**
+		 * The end of an inline table.
+		 */
+		END_INLINE_TABLE,
+		/**
+		 * The end of the data. Once it has been returned, every call to next() returns END_DOCUMENT.
+		 */
+		END_DOCUMENT
+	}
+
+	/**
+	 * The default size of the buffer, in chars.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	// The kinds of context: the content of a table, an array or an inline table.
+	private static final byte TABLE = 0, ARRAY = 1, INLINE_TABLE = 2;
+
+	private final Reader in;
+	private final boolean strictAsciiBareKeys;
+	private final char[] buf;
+	private int pos = 0, limit = 0;// current position and end of the valid data in the buffer
+	private boolean eof = false;
+	private int line = 1;// current line
+
+	// The nested contexts. Index 0 is the content of the current table, the others are arrays and inline tables.
+	private byte[] contexts = new byte[8];
+	private boolean[] afterValue = new boolean[8];// true if a value has been read in the context
+	private Class<?>[] arrayTypes = new Class<?>[8];// the type of the values of each array
+	private int depth = 0;
+
+	private boolean hasPendingValue = false;// true if the value of the last KEY hasn't been read yet
+	private char pendingValueFirstChar;
+
+	private final StringBuilder sb = new StringBuilder();
+	private final NumberScanner numberScanner = new NumberScanner();
+	private final ArrayList<String> tablePath = new ArrayList<>(4);
+	private final List<String> tablePathView = Collections.unmodifiableList(tablePath);
+	private String key;
+	private Object value;
+
+	/**
+	 * Creates a new TomlEventReader with a buffer of {@link #DEFAULT_BUFFER_SIZE} chars.
+	 *
+	 * @param in the Reader to read the data from
+	 * @param strictAsciiBareKeys <code>true</false> to allow only strict bare keys, <code>false</code> to allow
+	 *        lenient ones.
+	 */
+	public TomlEventReader(Reader in, boolean strictAsciiBareKeys) {
+		this(in, DEFAULT_BUFFER_SIZE, strictAsciiBareKeys);
+	}
+
+	/**
+	 * Creates a new TomlEventReader that reads UTF-8 encoded data from a channel, with a buffer of
+	 * {@link #DEFAULT_BUFFER_SIZE} chars.
+	 *
+	 * @param channel the channel to read the data from
+	 * @param strictAsciiBareKeys <code>true</false> to allow only strict bare keys, <code>false</code> to allow
+	 *        lenient ones.
+	 */
+	public TomlEventReader(ReadableByteChannel channel, boolean strictAsciiBareKeys) {
+		this(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1), DEFAULT_BUFFER_SIZE,
+				strictAsciiBareKeys);
+	}
+
+	/**
+	 * Creates a new TomlEventReader.
+	 *
+	 * @param in the Reader to read the data from
+	 * @param bufferSize the size of the buffer, in chars. It is never resized.
+	 * @param strictAsciiBareKeys <code>true</false> to allow only strict bare keys, <code>false</code> to allow
+	 *        lenient ones.
+	 */
+	public TomlEventReader(Reader in, int bufferSize, boolean strictAsciiBareKeys) {
+		this.in = in;
+		this.buf = new char[Math.max(bufferSize, 16)];// at least 16 chars for the escape sequences
+		this.strictAsciiBareKeys = strictAsciiBareKeys;
+	}
+
+	/**
+	 * Reads the next event.
+	 *
+	 * @return the next event
+	 * @throws IOException if a read error occurs
+	 * @throws TomlException if a parse error occurs
+	 */
+	public Event next() throws IOException {
+		if (hasPendingValue) {
+			hasPendingValue = false;
+			return startValue(pendingValueFirstChar);
+		}
+		switch (contexts[depth]) {
+			case ARRAY:
+				return nextInArray();
+			case INLINE_TABLE:
+				return nextInInlineTable();
+			default:
+				return nextInTable();
+		}
+	}
+
+	/**
+	 * Returns the path of the last table declaration, ie the parts of its name. The returned List is updated by
+	 * each START_TABLE and START_TABLE_ARRAY event.
+	 *
+	 * @return the path of the current table, empty at the beginning of the document
+	 */
+	public List<String> getTablePath() {
+		return tablePathView;
+	}
+
+	/**
+	 * Returns the last key that has been read.
+	 *
+	 * @return the key given by the last KEY event
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the last simple value that has been read.
+	 *
+	 * @return the value given by the last VALUE event
+	 */
+	public Object getValue() {
+		return value;
+	}
+
+	/**
+	 * Returns the current line.
+	 *
+	 * @return the current line, starting at 1
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * Closes the underlying Reader.
+	 *
+	 * @throws IOException if an error occurs
+	 */
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private Event nextInTable() throws IOException {
+		if (afterValue[0]) {
+			afterValue[0] = false;
+			int afterEntry = nextUsefulOrLinebreak();
+			if (afterEntry == '#') {
+				pos--;// to make the next nextUseful() call read the # character
+			} else if (afterEntry != '\n') {
+				throw new TomlException("Invalid character '" + TomlReader.toString((char) afterEntry)
+						+ "' after the value at line " + line);
+			}
+		}
+		int c = nextUseful(true);
+		if (c == -1) {
+			return Event.END_DOCUMENT;
+		}
+		if (c == '[') {
+			return nextTableDeclaration();
+		}
+		key = nextKey((char) c);
+		int separator = nextUsefulOrLinebreak();// tries to find the '=' sign
+		if (separator != '=')
+			throw new TomlException("Invalid character '" + TomlReader.toString((char) separator) + "' at line " + line
+					+ ": expected '='");
+
+		int valueFirstChar = nextUsefulOrLinebreak();
+		if (valueFirstChar == '\n') {
+			throw new TomlException("Invalid newline before the value at line " + line);
+		}
+		pendingValueFirstChar = (char) valueFirstChar;
+		hasPendingValue = true;
+		afterValue[0] = true;
+		return Event.KEY;
+	}
+
+	private Event nextInArray() throws IOException {
+		int c = nextUseful(true);
+		if (afterValue[depth]) {
+			if (c == ']') {
+				return endContext(Event.END_ARRAY);
+			}
+			if (c != ',') {
+				throw new TomlException("Invalid array at line " + line + ": expected a comma after each value");
+			}
+			c = nextUseful(true);
+		}
+		if (c == ']') {
+			return endContext(Event.END_ARRAY);
+		}
+		if (c == -1) {
+			throw new TomlException("Invalid array at line " + line + ": it never ends");
+		}
+		afterValue[depth] = true;
+		return startValue((char) c);
+	}
+
+	private Event nextInInlineTable() throws IOException {
+		int c = nextUsefulOrLinebreak();
+		if (afterValue[depth]) {
+			if (c == '}') {
+				return endContext(Event.END_INLINE_TABLE);
+			}
+			if (c != ',') {
+				throw new TomlException("Invalid inline table at line " + line + ": missing comma");
+			}
+			c = nextUsefulOrLinebreak();
+		}
+		if (c == '}') {
+			return endContext(Event.END_INLINE_TABLE);
+		}
+		if (c == '\n') {
+			throw new TomlException("Invalid inline table at line " + line + ": newlines are not allowed");
+		}
+		key = nextKey((char) c);
+		int separator = nextUsefulOrLinebreak();// tries to find the '=' sign
+		if (separator != '=')
+			throw new TomlException("Invalid character '" + TomlReader.toString((char) separator) + "' at line " + line
+					+ ": expected '='");
+
+		pendingValueFirstChar = (char) nextUsefulOrLinebreak();
+		hasPendingValue = true;
+		afterValue[depth] = true;
+		return Event.KEY;
+	}
+
+	private Event startValue(char firstChar) throws IOException {
+		Event event;
+		Class<?> type;
+		if (firstChar == '[') {
+			event = Event.START_ARRAY;
+			type = List.class;
+		} else if (firstChar == '{') {
+			event = Event.START_INLINE_TABLE;
+			type = Map.class;
+		} else {
+			event = Event.VALUE;
+			value = nextSimpleValue(firstChar);
+			type = value.getClass();
+		}
+		if (contexts[depth] == ARRAY) {
+			Class<?> arrayType = arrayTypes[depth];
+			if (arrayType == null) {
+				arrayTypes[depth] = type;
+			} else if (arrayType != type) {
+				throw new TomlException("Invalid array at line " + line + ": all the values must have the same type");
+			}
+		}
+		if (event != Event.VALUE) {
+			value = null;
+			startContext(event == Event.START_ARRAY ? ARRAY : INLINE_TABLE);
+		}
+		return event;
+	}
+
+	private void startContext(byte context) {
+		depth++;
+		if (depth == contexts.length) {
+			int newLength = depth * 2;
+			contexts = Arrays.copyOf(contexts, newLength);
+			afterValue = Arrays.copyOf(afterValue, newLength);
+			arrayTypes = Arrays.copyOf(arrayTypes, newLength);
+		}
+		contexts[depth] = context;
+		afterValue[depth] = false;
+		arrayTypes[depth] = null;
+	}
+
+	private Event endContext(Event event) {
+		arrayTypes[depth] = null;
+		depth--;
+		value = null;
+		return event;
+	}
+
+	private Event nextTableDeclaration() throws IOException {
+		tablePath.clear();
+		int c = nextUseful(true);
+		boolean twoBrackets = (c == '[');
+		if (twoBrackets) {
+			c = nextUseful(false);
+		}
+
+		// --- Reads the key --
+		while (true) {
+			if (c == -1)
+				throw new TomlException("Invalid table declaration at line " + line + ": it never ends");
+
+			if (c == '"' || c == '\'') {
+				tablePath.add(nextString((char) c).trim());
+				c = nextUseful(false);
+				if (c == ']') {
+					break;
+				} else if (c != '.') {
+					throw new TomlException("Invalid table declaration at line " + line + ": expected '.' or ']'");
+				}
+			} else {
+				String name = nextBareKey(']', '.', ']').trim();
+				c = read();// the character we stopped at in nextBareKey()
+				if (c == ']') {
+					if (!name.isEmpty())
+						tablePath.add(name);
+					break;
+				} else if (name.isEmpty()) {
+					throw new TomlException("Invalid empty key at line " + line);
+				}
+				tablePath.add(name);
+			}
+			c = nextUseful(false);
+		}
+
+		// -- Checks --
+		if (tablePath.isEmpty())
+			throw new TomlException("Invalid empty key at line " + line);
+
+		if (twoBrackets && read() != ']') {// 2 brackets at the start but only one at the end!
+			throw new TomlException("Missing character ']' at line " + line);
+		}
+		return twoBrackets ? Event.START_TABLE_ARRAY : Event.START_TABLE;
+	}
+
+	private String nextKey(char firstChar) throws IOException {
+		if (firstChar == '"' || firstChar == '\'') {
+			return nextString(firstChar);
+		}
+		String name = nextBareKey(' ', '\t', '=');
+		if (name.isEmpty())
+			throw new TomlException("Invalid empty key at line " + line);
+		return name;
+	}
+
+	private String nextString(char quote) throws IOException {
+		if (peek(0) == quote && peek(1) == quote) {
+			pos += 2;
+			return (quote == '"') ? nextBasicMultilineString() : nextLiteralMultilineString();
+		}
+		return (quote == '"') ? nextBasicString() : nextLiteralString();
+	}
+
+	/**
+	 * Reads a bare key, which ends just before one of the given characters. The first character of the key must
+	 * have just been read.
+	 */
+	private String nextBareKey(char end1, char end2, char end3) throws IOException {
+		sb.setLength(0);
+		pos--;// to include the first (already read) character
+		while (true) {
+			int start = pos;
+			for (; pos < limit; pos++) {
+				char c = buf[pos];
+				if (c == end1 || c == end2 || c == end3) {// checks if this character allowed to end this bare key
+					sb.append(buf, start, pos - start);
+					return sb.toString();
+				}
+				if (strictAsciiBareKeys) {
+					if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_'
+							|| c == '-'))
+						throw new TomlException("Forbidden character '" + TomlReader.toString(c)
+								+ "' in strict bare-key at line " + line);
+				} else if (c <= ' ' || c == '#' || c == '=' || c == '.' || c == '[' || c == ']') {// lenient bare key
+					throw new TomlException(
+							"Forbidden character '" + TomlReader.toString(c) + "' in lenient bare-key at line " + line);
+				} // else continue reading
+			}
+			sb.append(buf, start, pos - start);
+			if (!ensure(1))
+				throw new TomlException("Invalid key/value pair at line " + line
+						+ " end of data reached before the value attached to the key was found");
+		}
+	}
+
+	private Object nextSimpleValue(char firstChar) throws IOException {
+		switch (firstChar) {
+			case '+':
+			case '-':
+			case '0':
+			case '1':
+			case '2':
+			case '3':
+			case '4':
+			case '5':
+			case '6':
+			case '7':
+			case '8':
+			case '9':
+				return nextNumberOrDate(firstChar);
+			case '"':
+			case '\'':
+				return nextString(firstChar);
+			case 't':// Must be "true"
+				if (read() != 'r' || read() != 'u' || read() != 'e') {
+					throw new TomlException("Invalid value at line " + line);
+				}
+				return true;
+			case 'f':// Must be "false"
+				if (read() != 'a' || read() != 'l' || read() != 's' || read() != 'e') {
+					throw new TomlException("Invalid value at line " + line);
+				}
+				return false;
+			default:
+				throw new TomlException("Invalid character '" + TomlReader.toString(firstChar) + "' at line " + line);
+		}
+	}
+
+	private Object nextNumberOrDate(char first) throws IOException {
+		sb.setLength(0);
+		sb.append(first);
+		whileLoop: while (pos < limit || ensure(1)) {
+			char c = buf[pos];
+			switch (c) {
+				case ',':
+				case ' ':
+				case '\t':
+				case '\n':
+				case '\r':
+				case ']':
+				case '}':
+					break whileLoop;
+			}
+			sb.append(c);
+			pos++;
+		}
+		return TomlReader.parseNumberOrDate(sb, 0, sb.length(), numberScanner, line);
+	}
+
+	private String nextLiteralString() throws IOException {
+		sb.setLength(0);
+		while (true) {
+			int start = pos;
+			for (; pos < limit; pos++) {
+				char c = buf[pos];
+				if (c == '\'') {
+					sb.append(buf, start, pos - start);
+					pos++;
+					return sb.toString();
+				} else if (c == '\n') {
+					throw new TomlException("Invalid literal String at line " + line + ": newlines are not allowed here");
+				}
+			}
+			sb.append(buf, start, pos - start);
+			if (!ensure(1))
+				throw new TomlException("Invalid literal String at line " + line + ": it never ends");
+		}
+	}
+
+	private String nextLiteralMultilineString() throws IOException {
+		sb.setLength(0);
+		skipFirstLinebreak();
+		while (true) {
+			int c = read();
+			if (c == -1) {
+				throw new TomlException("Invalid multiline literal String at line " + line + ": it never ends");
+			} else if (c == '\'' && peek(0) == '\'' && peek(1) == '\'') {
+				pos += 2;// goes after the 3 quotes
+				return sb.toString();
+			} else if (c == '\n') {
+				line++;
+			}
+			sb.append((char) c);
+		}
+	}
+
+	private String nextBasicString() throws IOException {
+		sb.setLength(0);
+		while (true) {
+			int c = read();
+			if (c == -1) {
+				throw new TomlException("Invalid basic String at line " + line + ": it never ends");
+			} else if (c == '\n' || c == '\r') {
+				throw new TomlException("Invalid basic String at line " + line + ": newlines not allowed");
+			} else if (c == '\\') {
+				unescape(read());
+			} else if (c == '"') {
+				return sb.toString();
+			} else {
+				sb.append((char) c);
+			}
+		}
+	}
+
+	private String nextBasicMultilineString() throws IOException {
+		sb.setLength(0);
+		skipFirstLinebreak();
+		while (true) {
+			int c = read();
+			if (c == -1) {
+				throw new TomlException("Invalid multiline basic String at line " + line + ": it never ends");
+			} else if (c == '\\') {
+				int escaped = read();
+				if (escaped == '\r' || escaped == '\n' || escaped == ' ' || escaped == '\t') {
+					if (escaped == '\n')
+						line++;
+					int next = nextUseful(false);// skips the whitespaces and the newlines
+					if (next != -1)
+						pos--;// so that it is read by the next call to read()
+				} else {
+					unescape(escaped);
+				}
+			} else if (c == '"' && peek(0) == '"' && peek(1) == '"') {
+				pos += 2;// goes after the 3 quotes
+				return sb.toString();
+			} else {
+				if (c == '\n')
+					line++;
+				sb.append((char) c);
+			}
+		}
+	}
+
+	/**
+	 * Skips the linebreak that immediately follows the opening delimiter of a multiline string, if any.
+	 */
+	private void skipFirstLinebreak() throws IOException {
+		if (peek(0) == '\n') {
+			pos++;
+			line++;
+		} else if (peek(0) == '\r' && peek(1) == '\n') {
+			pos += 2;
+			line++;
+		}
+	}
+
+	/**
+	 * Appends the character represented by an escape sequence to the StringBuilder.
+	 */
+	private void unescape(int c) throws IOException {
+		switch (c) {
+			case 'b':
+				sb.append('\b');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case '"':
+				sb.append('"');
+				break;
+			case '\\':
+				sb.append('\\');
+				break;
+			case 'u':// unicode uXXXX
+				sb.appendCodePoint(nextHexCodePoint(4));
+				break;
+			case 'U':// unicode UXXXXXXXX
+				sb.appendCodePoint(nextHexCodePoint(8));
+				break;
+			case -1:
+				throw new TomlException("Invalid escape sequence at line " + line + ": the data ends too early");
+			default:
+				throw new TomlException("Invalid escape sequence: \"\\" + (char) c + "\" at line " + line);
+		}
+	}
+
+	private int nextHexCodePoint(int digits) throws IOException {
+		if (!ensure(digits))
+			throw new TomlException("Invalid unicode code point at line " + line);
+		int codePoint = 0;
+		for (int i = 0; i < digits; i++) {
+			int digit = Character.digit(buf[pos++], 16);
+			if (digit == -1)
+				throw new TomlException("Invalid unicode code point at line " + line);
+			codePoint = (codePoint << 4) | digit;
+		}
+		if (!Character.isValidCodePoint(codePoint))
+			throw new TomlException("Invalid unicode code point at line " + line);
+		return codePoint;
+	}
+
+	private int nextUseful(boolean skipComments) throws IOException {
+		while (true) {
+			int c = read();
+			if (c == '\n') {
+				line++;
+			} else if (c == '#' && skipComments) {
+				skipComment();
+			} else if (c != ' ' && c != '\t' && c != '\r') {
+				return c;
+			}
+		}
+	}
+
+	private int nextUsefulOrLinebreak() throws IOException {
+		int c;
+		do {
+			c = read();
+			if (c == -1)// fixes error when no '\n' at the end of the data
+				return '\n';
+		} while (c == ' ' || c == '\t' || c == '\r');
+		if (c == '\n')
+			line++;
+		return c;
+	}
+
+	private void skipComment() throws IOException {
+		do {
+			for (; pos < limit; pos++) {
+				if (buf[pos] == '\n') {
+					pos++;
+					line++;
+					return;
+				}
+			}
+		} while (ensure(1));
+	}
+
+	/**
+	 * Reads the next character.
+	 *
+	 * @return the next character, or -1 if the end of the data has been reached
+	 */
+	private int read() throws IOException {
+		if (pos == limit && !ensure(1))
+			return -1;
+		return buf[pos++];
+	}
+
+	/**
+	 * Returns a character without reading it.
+	 *
+	 * @param offset the offset of the character from the current position
+	 * @return the character, or -1 if the end of the data has been reached
+	 */
+	private int peek(int offset) throws IOException {
+		if (!ensure(offset + 1))
+			return -1;
+		return buf[pos + offset];
+	}
+
+	/**
+	 * Makes sure that the buffer contains at least n characters after the current position. The remaining
+	 * characters are moved to the beginning of the buffer if more data needs to be read.
+	 *
+	 * @return true if there are at least n characters after the current position, false if the end of the data
+	 *         has been reached before
+	 */
+	private boolean ensure(int n) throws IOException {
+		if (limit - pos >= n)
+			return true;
+		if (eof)
+			return false;
+		if (pos > 0) {
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			limit -= pos;
+			pos = 0;
+		}
+		while (limit < n) {
+			int read = in.read(buf, limit, buf.length - limit);
+			if (read == -1) {
+				eof = true;
+				return false;
+			}
+			limit += read;
+		}
+		return true;
+	}
+
+}
@@ -9,6 +9,8 @@ public class TomlException extends RuntimeException {
 	
 	private static final long serialVersionUID = 1L;
 	
+	private int line = -1, column = -1;
+	
 	public TomlException() {}
 	
 	public TomlException(String message, Throwable cause) {
@@ -23,4 +25,34 @@ public class TomlException extends RuntimeException {
 		super(cause);
 	}
 	
+	/**
+	 * Creates a new TomlException that knows where the problem is in the data.
+	 *
+	 * @param message the detail message
+	 * @param cause the cause, or null
+	 * @param line the line of the problem, starting at 1
+	 * @param column the column of the problem, starting at 1
+	 * @param writableStackTrace <code>false</code> to create the exception without its stack trace, which is much
+	 *        faster
+	 */
+	protected TomlException(String message, Throwable cause, int line, int column, boolean writableStackTrace) {
+		super(message, cause, true, writableStackTrace);
+		this.line = line;
+		this.column = column;
+	}
+	
+	/**
+	 * @return the line where the problem occured in the data, starting at 1, or -1 if it's unknown
+	 */
+	public int getLine() {
+		return line;
+	}
+	
+	/**
+	 * @return the column where the problem occured in the data, starting at 1, or -1 if it's unknown
+	 */
+	public int getColumn() {
+		return column;
+	}
+	
 }
@@ -0,0 +1,323 @@
+package com.electronwill.toml;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.time.temporal.TemporalAccessor;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Writes TOML data incrementally, without building a Map first. Each call writes its part of the data immediately,
+ * so the memory used doesn't depend on the size of the data. For example, a database can be exported to an array of
+ * tables like this:
+ *
+ * <pre>
+ * TomlGenerator generator = new TomlGenerator(writer);
+ * generator.key("version").value(2);
+ * while (cursor.next()) {
+ * 	generator.beginTableArrayElement("record");
+ * 	generator.key("id").value(cursor.getLong(1));
+ * 	generator.key("tags").beginArray().value("a").value("b").endArray();
+ * }
+ * generator.close();
+ * </pre>
+ * <p>
+ * The keys and the values are written with the same rules as the {@link TomlWriter}. The generator checks the order
+ * of the calls and the types of the values in each array, and throws an {@link IllegalStateException} or a
+ * {@link TomlException} as soon as something is wrong. It does NOT check that the keys and the tables are unique,
+ * because that would require to remember all of them.
+ * </p>
+ *
+ * @author TheElectronWill
+ */
+public final class TomlGenerator {
+
+	// Types of the values in an array. 0 means that the array is empty.
+	private static final byte INTEGER = 1, DECIMAL = 2, STRING = 3, BOOLEAN = 4, DATETIME = 5, ARRAY = 6;
+
+	private final TomlWriter out;
+	private int tableDepth = 0;// the number of parts in the name of the current table, 0 for the root table
+	private boolean keyWritten = false;// true if a key has been written, but not its value
+	private boolean empty = true;
+	private int arrayDepth = 0;
+	private byte[] arrayTypes = new byte[4];// arrayTypes[i] is the type of the values of the array at depth i+1
+
+	/**
+	 * Creates a new TomlGenerator with the default parameters of the {@link TomlWriter}: each indent is one tab
+	 * character and the system line separator is used.
+	 *
+	 * @param writer where to write the data
+	 */
+	public TomlGenerator(Writer writer) {
+		this(writer, 1, false, System.lineSeparator());
+	}
+
+	/**
+	 * Creates a new TomlGenerator with the specified parameters.
+	 *
+	 * @param writer where to write the data
+	 * @param indentSize the size of each indent
+	 * @param indentWithSpaces true to indent with spaces, false to indent with tabs
+	 * @param lineSeparator the String to write to break lines
+	 */
+	public TomlGenerator(Writer writer, int indentSize, boolean indentWithSpaces, String lineSeparator) {
+		this.out = new TomlWriter(writer, indentSize, indentWithSpaces, lineSeparator);
+	}
+
+	/**
+	 * Begins a table. The next keys and values are in this table.
+	 *
+	 * @param path the name of the table: one String per part, without quotes. For example, {@code ("a", "b")}
+	 *        begins the table [a.b].
+	 * @return this generator
+	 * @throws IOException if an error occurs
+	 */
+	public TomlGenerator beginTable(String... path) throws IOException {
+		writeTableHeader(path, "[", "]");
+		return this;
+	}
+
+	/**
+	 * Begins a new element of an array of tables. The next keys and values are in this element.
+	 *
+	 * @param path the name of the array of tables: one String per part, without quotes. For example,
+	 *        {@code ("a", "b")} begins a new element [[a.b]].
+	 * @return this generator
+	 * @throws IOException if an error occurs
+	 */
+	public TomlGenerator beginTableArrayElement(String... path) throws IOException {
+		writeTableHeader(path, "[[", "]]");
+		return this;
+	}
+
+	/**
+	 * Writes a key. It must be followed by a value or by an array.
+	 *
+	 * @param name the key, without quotes
+	 * @return this generator
+	 * @throws IOException if an error occurs
+	 */
+	public TomlGenerator key(String name) throws IOException {
+		checkNotInValue("a key");
+		out.writeIndent(tableDepth - 1);
+		out.writeKey(name);
+		out.write(" = ");
+		keyWritten = true;
+		empty = false;
+		return this;
+	}
+
+	/**
+	 * Writes an integer.
+	 *
+	 * @param value the value
+	 * @return this generator
+	 * @throws IOException if an error occurs
+	 */
+	public TomlGenerator value(long value) throws IOException {
+		beforeValue(INTEGER);
+		out.writeLong(value);
+		afterValue();
+		return this;
+	}
+
+	/**
+	 * Writes a decimal.
+	 *
+	 * @param value the value
+	 * @return this generator
+	 * @throws IOException if an error occurs
+	 */
+	public TomlGenerator value(double value) throws IOException {
+		beforeValue(DECIMAL);
+		out.writeDouble(value);
+		afterValue();
+		return this;
+	}
+
+	/**
+	 * Writes a boolean.
+	 *
+	 * @param value the value
+	 * @return this generator
+	 * @throws IOException if an error occurs
+	 */
+	public TomlGenerator value(boolean value) throws IOException {
+		beforeValue(BOOLEAN);
+		out.write(value ? "true" : "false");
+		afterValue();
+		return this;
+	}
+
+	/**
+	 * Writes a String, with quotes and with the necessary escape sequences.
+	 *
+	 * @param value the value
+	 * @return this generator
+	 * @throws IOException if an error occurs
+	 */
+	public TomlGenerator value(String value) throws IOException {
+		Objects.requireNonNull(value, "value");
+		beforeValue(STRING);
+		out.writeString(value);
+		afterValue();
+		return this;
+	}
+
+	/**
+	 * Writes a datetime. See {@link TomlWriter} for the supported kinds of datetimes.
+	 *
+	 * @param value the value
+	 * @return this generator
+	 * @throws IOException if an error occurs
+	 */
+	public TomlGenerator value(TemporalAccessor value) throws IOException {
+		Objects.requireNonNull(value, "value");
+		beforeValue(DATETIME);
+		out.writeDateTime(value);
+		afterValue();
+		return this;
+	}
+
+	/**
+	 * Writes any value supported by the {@link TomlWriter}, except the tables: a number, a boolean, a String, a
+	 * datetime, a Collection or an array.
+	 *
+	 * @param value the value
+	 * @return this generator
+	 * @throws IOException if an error occurs
+	 */
+	public TomlGenerator value(Object value) throws IOException {
+		Objects.requireNonNull(value, "value");
+		if (value instanceof Map)
+			throw new IllegalArgumentException("A table can't be written as a value, use beginTable instead");
+		beforeValue(typeOf(value));
+		out.writeValue(value);
+		afterValue();
+		return this;
+	}
+
+	/**
+	 * Begins an array. The next values are in this array, until {@link #endArray()} is called.
+	 *
+	 * @return this generator
+	 * @throws IOException if an error occurs
+	 */
+	public TomlGenerator beginArray() throws IOException {
+		beforeValue(ARRAY);
+		if (arrayDepth == arrayTypes.length) {
+			arrayTypes = Arrays.copyOf(arrayTypes, arrayDepth * 2);
+		}
+		arrayTypes[arrayDepth++] = 0;
+		out.write('[');
+		return this;
+	}
+
+	/**
+	 * Ends the current array.
+	 *
+	 * @return this generator
+	 * @throws IOException if an error occurs
+	 */
+	public TomlGenerator endArray() throws IOException {
+		if (arrayDepth == 0)
+			throw new IllegalStateException("No array to end");
+		arrayDepth--;
+		out.write(']');
+		afterValue();
+		return this;
+	}
+
+	/**
+	 * Flushes the underlying writer.
+	 *
+	 * @throws IOException if an error occurs
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Closes the underlying writer, flushing it first.
+	 *
+	 * @throws IOException if an error occurs
+	 * @throws IllegalStateException if the last value isn't complete. The writer is closed anyway.
+	 */
+	public void close() throws IOException {
+		try {
+			checkNotInValue("the end of the data");
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeTableHeader(String[] path, String open, String close) throws IOException {
+		if (path.length == 0)
+			throw new IllegalArgumentException("The name of a table can't be empty");
+		checkNotInValue("a table");
+		if (!empty) {
+			out.writeLineSeparator();// separates the tables with an empty line
+		}
+		out.writeIndent(path.length - 1);
+		out.write(open);
+		for (int i = 0; i < path.length; i++) {
+			if (i > 0) {
+				out.write('.');
+			}
+			out.writeKey(path[i]);
+		}
+		out.write(close);
+		out.writeLineSeparator();
+		tableDepth = path.length;
+		empty = false;
+	}
+
+	private void checkNotInValue(String what) {
+		if (arrayDepth > 0)
+			throw new IllegalStateException("Expected a value or the end of the array, not " + what);
+		if (keyWritten)
+			throw new IllegalStateException("Expected the value of the key, not " + what);
+	}
+
+	private void beforeValue(byte type) throws IOException {
+		if (arrayDepth > 0) {
+			byte arrayType = arrayTypes[arrayDepth - 1];
+			if (arrayType == 0) {
+				arrayTypes[arrayDepth - 1] = type;
+			} else if (arrayType == type) {
+				out.write(", ");
+			} else {
+				throw new TomlException("Invalid array: all the values must have the same type");
+			}
+		} else if (!keyWritten) {
+			throw new IllegalStateException("Expected a key before the value");
+		}
+	}
+
+	private void afterValue() throws IOException {
+		if (arrayDepth == 0) {// the end of the key/value pair
+			keyWritten = false;
+			out.writeLineSeparator();
+		}
+	}
+
+	private static byte typeOf(Object value) {
+		if (value instanceof String)
+			return STRING;
+		if (value instanceof Double || value instanceof Float || value instanceof BigDecimal)
+			return DECIMAL;
+		if (value instanceof Number)
+			return INTEGER;
+		if (value instanceof Boolean)
+			return BOOLEAN;
+		if (value instanceof TemporalAccessor)
+			return DATETIME;
+		if (value instanceof Collection || value.getClass().isArray())
+			return ARRAY;
+		throw new TomlException("Unsupported value of type " + value.getClass().getCanonicalName());
+	}
+
+}
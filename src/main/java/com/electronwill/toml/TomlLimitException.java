@@ -0,0 +1,26 @@
+package com.electronwill.toml;
+
+/**
+ * Thrown when some TOML data exceeds one of the {@link TomlReaderLimits} of the reader.
+ *
+ * @author TheElectronWill
+ */
+public class TomlLimitException extends TomlException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int limit;
+
+	TomlLimitException(String message, int limit, int line, int column, boolean writableStackTrace) {
+		super(message, null, line, column, writableStackTrace);
+		this.limit = limit;
+	}
+
+	/**
+	 * @return the value of the limit that has been exceeded
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.electronwill.toml;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * The result of the reading of a file by {@link Toml#readAll(java.util.Collection, java.util.concurrent.Executor)}:
+ * either the data of the file, or the error that prevented it from being read.
+ *
+ * @author TheElectronWill
+ */
+public final class TomlReadResult {
+
+	private final Path file;
+	private final Map<String, Object> data;
+	private final Exception error;
+
+	TomlReadResult(Path file, Map<String, Object> data, Exception error) {
+		this.file = file;
+		this.data = data;
+		this.error = error;
+	}
+
+	/**
+	 * @return the file that has been read
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * @return true if the file has been read without error
+	 */
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	/**
+	 * @return the data of the file, or null if an error occured
+	 */
+	public Map<String, Object> getData() {
+		return data;
+	}
+
+	/**
+	 * @return the error that occured, usually an IOException or a TomlException, or null if the file has been read
+	 *         without error
+	 */
+	public Exception getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return "TomlReadResult{file=" + file + ", " + (error == null ? "data=" + data : "error=" + error) + "}";
+	}
+
+}
@@ -1,13 +1,22 @@
 package com.electronwill.toml;
 
+import java.nio.ByteBuffer;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Class for reading TOML v0.4.0.
@@ -30,16 +39,88 @@ import java.util.Map;
  * bare keys may contain any character except those below the space character ' ' in the unicode table, '.', '[', ']'
  * and '='. The behaviour of TomlReader regarding bare keys is set in its constructor.
  * </p>
+ * <h1>UTF-8 bytes</h1>
+ * <p>
+ * A TomlReader may read UTF-8 encoded bytes directly, with {@link #TomlReader(ByteBuffer, boolean)}. The bytes
+ * aren't converted to chars before being parsed: only the keys and the strings are decoded.
+ * </p>
+ * <h1>Tables</h1>
+ * <p>
+ * By default, the tables are compact read-only maps that keep the order of their keys. A TomlReader may return
+ * modifiable HashMaps instead, see {@link #setCompactTables(boolean)}.
+ * </p>
  *
  * @author TheElectronWill
  * 		
  */
 public final class TomlReader {
 	
-	private final String data;
+	/**
+	 * The minimum length of the data parsed by a SectionsTask, unless it contains only one table.
+	 */
+	private static final int SECTIONS_BATCH_LENGTH = 64 * 1024;
+	
+	/**
+	 * The maximum capacity of the StringBuilder kept by a reader after a reset.
+	 */
+	private static final int MAX_KEPT_BUILDER_CAPACITY = 64 * 1024;
+	
+	/**
+	 * The classes of the characters, used by the lexer. A character may have several classes.
+	 */
+	private static final int KEY_END = 1,// ends a bare key: ' ', '\t' or '='
+			TABLE_KEY_END = 2,// ends a part of a table name: ']' or '.'
+			STRICT_KEY = 4,// allowed in a strict bare key: A-Z, a-z, 0-9, '_' and '-'
+			LENIENT_KEY = 8,// allowed in a lenient bare key: everything above ' ' except '#', '=', '.', '[' and ']'
+			VALUE_END = 16,// ends a number or a datetime: ',', ' ', '\t', '\n', '\r', ']' or '}'
+			BASIC_STRING_SPECIAL = 32;// stops the scanning of a basic string: '"', '\\', '\n' or '\r'
+	
+	/**
+	 * The classes of the ASCII characters. The other characters are only allowed in lenient bare keys.
+	 */
+	private static final byte[] CHAR_CLASSES = new byte[128];
+	
+	static {
+		for (char c = 0; c < 128; c++) {
+			int classes = 0;
+			if (c == ' ' || c == '\t' || c == '=')
+				classes |= KEY_END;
+			if (c == ']' || c == '.')
+				classes |= TABLE_KEY_END;
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-')
+				classes |= STRICT_KEY;
+			if (c > ' ' && c != '#' && c != '=' && c != '.' && c != '[' && c != ']')
+				classes |= LENIENT_KEY;
+			if (c == ',' || c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == ']' || c == '}')
+				classes |= VALUE_END;
+			if (c == '"' || c == '\\' || c == '\n' || c == '\r')
+				classes |= BASIC_STRING_SPECIAL;
+			CHAR_CLASSES[c] = (byte) classes;
+		}
+	}
+	
+	private CharSequence data;// a String, an Utf8Sequence or the StringBuilder of a Toml method
 	private final boolean strictAsciiBareKeys;
+	private final NumberScanner numberScanner = new NumberScanner();
+	private final StringBuilder stringBuilder = new StringBuilder();// used to parse the strings with escapes
+	private Utf8Sequence utf8Sequence;// kept to read other bytes after a reset
 	private int pos = 0;// current position
 	private int line = 1;// current line
+	private LazyTomlDocument lazyDocument;// not null when reading lazily
+	private PathFilter filter;// not null when extracting some values
+	private List<String> tablePath = Collections.emptyList();// the path of the current table, used by the filter
+	private int tableSelection = PathFilter.SELECTED;// the selection of the current table by the filter
+	private TomlStringCache stringCache;// not null when the strings are shared with other readers
+	private boolean cacheStringValues = false;
+	private boolean primitiveArrays = false;
+	private boolean compactTables = true;
+	private boolean validating = false;// true when checking the data without reading it
+	private TomlReaderLimits limits = TomlReaderLimits.NONE;
+	private int maxDepth = Integer.MAX_VALUE, maxStringLength = Integer.MAX_VALUE;// copied from the limits
+	private int maxArrayLength = Integer.MAX_VALUE, maxEntries = Integer.MAX_VALUE;
+	private int depth = 0;// the current depth of the arrays and inline tables
+	private int entries = 0;// the number of entries read
+	private Set<String> validatedKeys;// the keys of the current table, when validating
 	
 	/**
 	 * Creates a new TomlReader.
@@ -53,6 +134,102 @@ public final class TomlReader {
 		this.strictAsciiBareKeys = strictAsciiBareKeys;
 	}
 	
+	/**
+	 * Creates a new TomlReader that reads UTF-8 encoded bytes. The remaining bytes of the buffer are read, without
+	 * modifying its position. The buffer may be a {@link java.nio.MappedByteBuffer}.
+	 *
+	 * @param data the TOML data to read, encoded in UTF-8
+	 * @param strictAsciiBareKeys <code>true</false> to allow only strict bare keys, <code>false</code> to allow lenient
+	 *        ones.
+	 */
+	public TomlReader(ByteBuffer data, boolean strictAsciiBareKeys) {
+		this.data = new Utf8Sequence(data);
+		this.strictAsciiBareKeys = strictAsciiBareKeys;
+	}
+	
+	private TomlReader(CharSequence data, boolean strictAsciiBareKeys) {
+		this.data = data;
+		this.strictAsciiBareKeys = strictAsciiBareKeys;
+	}
+	
+	/**
+	 * Resets this reader so that it reads new data. The reader's settings are kept. Reusing a reader avoids to
+	 * create a new one, with its buffers, for each data to read.
+	 *
+	 * @param data the TOML data to read
+	 */
+	public void reset(String data) {
+		reset((CharSequence) data);
+	}
+	
+	/**
+	 * Resets this reader so that it reads new UTF-8 encoded bytes. The reader's settings are kept. Reusing a reader
+	 * avoids to create a new one, with its buffers, for each data to read.
+	 *
+	 * @param data the TOML data to read, encoded in UTF-8
+	 */
+	public void reset(ByteBuffer data) {
+		if (utf8Sequence == null)
+			utf8Sequence = (this.data instanceof Utf8Sequence) ? (Utf8Sequence) this.data : new Utf8Sequence(data);
+		utf8Sequence.reset(data);
+		reset(utf8Sequence);
+	}
+	
+	/**
+	 * Resets this reader so that it reads new data, which is a String, an Utf8Sequence or a StringBuilder.
+	 */
+	void reset(CharSequence data) {
+		this.data = data;
+		pos = 0;
+		line = 1;
+		if (stringBuilder.capacity() > MAX_KEPT_BUILDER_CAPACITY) {
+			stringBuilder.setLength(0);
+			stringBuilder.trimToSize();
+		}
+	}
+	
+	/**
+	 * Releases the data, so that it can be garbage collected while this reader is kept.
+	 */
+	void release() {
+		reset("");
+		if (utf8Sequence != null)
+			utf8Sequence.release();
+	}
+	
+	/**
+	 * Creates an exception for an error at the current position. When validating, the exception has no stack trace
+	 * because it's only used to report the error.
+	 */
+	private TomlException error(String message) {
+		return new TomlException(message, null, line, column(pos), !validating);
+	}
+	
+	/**
+	 * Creates an exception for a limit that is exceeded at the current position.
+	 */
+	private TomlLimitException limitError(String message, int limit) {
+		return new TomlLimitException(message + " at line " + line + ": the limit is " + limit, limit, line, column(pos),
+				!validating);
+	}
+	
+	/**
+	 * Returns the column of the last character read before the given position, starting at 1. The column counts
+	 * the characters, not the UTF-8 bytes.
+	 */
+	private int column(int position) {
+		boolean utf8 = data instanceof Utf8Sequence;
+		int column = 1;
+		for (int i = Math.min(position, data.length()) - 2; i >= 0; i--) {
+			char c = data.charAt(i);
+			if (c == '\n')
+				break;
+			if (!utf8 || (c & 0xC0) != 0x80)// doesn't count the continuation bytes
+				column++;
+		}
+		return column;
+	}
+	
 	private boolean hasNext() {
 		return pos < data.length();
 	}
@@ -61,20 +238,40 @@ public final class TomlReader {
 		return data.charAt(pos++);
 	}
 	
+	private static int charClasses(char c) {
+		return (c < 128) ? CHAR_CLASSES[c] : LENIENT_KEY;
+	}
+	
+	/**
+	 * Skips the whitespaces, the newlines, and the comments if skipComments is true. Returns the first other
+	 * character, or the last skipped one if the end of the data is reached.
+	 */
 	private char nextUseful(boolean skipComments) {
 		char c = ' ';
-		while (hasNext() && (c == ' ' || c == '\t' || c == '\r' || c == '\n' || (c == '#' && skipComments))) {
-			c = next();
-			if (skipComments && c == '#') {
-				int nextLinebreak = data.indexOf('\n', pos);
-				if (nextLinebreak == -1) {
-					pos = data.length();
-				} else {
-					pos = nextLinebreak + 1;
+		int length = data.length();
+		while (pos < length) {
+			c = data.charAt(pos++);
+			switch (c) {
+				case ' ':
+				case '\t':
+				case '\r':
+					break;
+				case '\n':
 					line++;
-				}
-			} else if (c == '\n') {
-				line++;
+					break;
+				case '#':
+					if (!skipComments)
+						return c;
+					int nextLinebreak = indexOf('\n', pos);
+					if (nextLinebreak == -1) {
+						pos = length;
+					} else {
+						pos = nextLinebreak + 1;
+						line++;
+					}
+					break;
+				default:
+					return c;
 			}
 		}
 		return c;
@@ -93,6 +290,7 @@ public final class TomlReader {
 	}
 	
 	private Object nextValue(char firstChar) {
+		countEntry();
 		switch (firstChar) {
 			case '+':
 			case '-':
@@ -127,236 +325,133 @@ public final class TomlReader {
 					}
 				}
 				return nextLiteralString();
-			case '[':
-				return nextArray();
-			case '{':
-				return nextInlineTable();
-			case 't':// Must be "true"
-				if (pos + 3 > data.length() || next() != 'r' || next() != 'u' || next() != 'e') {
-					throw new TomlException("Invalid value at line " + line);
-				}
-				return true;
-			case 'f':// Must be "false"
-				if (pos + 4 > data.length() || next() != 'a' || next() != 'l' || next() != 's' || next() != 'e') {
-					throw new TomlException("Invalid value at line " + line);
-				}
-				return false;
+			case '[': {
+				enterNested();
+				List array = nextArray();
+				depth--;
+				return array;
+			}
+			case '{': {
+				enterNested();
+				Map<String, Object> table = nextInlineTable();
+				depth--;
+				return table;
+			}
+			case 't':
+			case 'f':
+				return nextBoolean(firstChar);
 			default:
-				throw new TomlException("Invalid character '" + toString(firstChar) + "' at line " + line);
+				throw error("Invalid character '" + toString(firstChar) + "' at line " + line);
+		}
+	}
+	
+	private boolean nextBoolean(char firstChar) {
+		if (firstChar == 't') {// Must be "true"
+			if (pos + 3 > data.length() || next() != 'r' || next() != 'u' || next() != 'e') {
+				throw error("Invalid value at line " + line);
+			}
+			return true;
+		}
+		// Must be "false"
+		if (pos + 4 > data.length() || next() != 'a' || next() != 'l' || next() != 's' || next() != 'e') {
+			throw error("Invalid value at line " + line);
 		}
+		return false;
+	}
+	
+	/**
+	 * Counts an entry: a key/value pair, a table declaration or a value in an array.
+	 */
+	private void countEntry() {
+		if (++entries > maxEntries)
+			throw limitError("Too many entries", maxEntries);
+	}
+	
+	/**
+	 * Enters an array or an inline table.
+	 */
+	private void enterNested() {
+		if (++depth > maxDepth)
+			throw limitError("Too deep nesting", maxDepth);
+	}
+	
+	private void checkStringLength(int start, int end) {
+		if (end - start > maxStringLength)
+			throw limitError("Too long string", maxStringLength);
 	}
 	
+	/**
+	 * Checks the size of the data and resets the counters of the limits.
+	 */
+	private void startLimits() {
+		depth = 0;
+		entries = 0;
+		int maxSize = limits.getMaxDocumentSize();
+		if (data.length() > maxSize)
+			throw new TomlLimitException("Too big document: its size is " + data.length() + ", the limit is " + maxSize,
+					maxSize, -1, -1, !validating);
+	}
+	
+	/**
+	 * Reads the TOML data.
+	 *
+	 * @return a {@code Map<String, Object>} containing the parsed data
+	 * @throws TomlException if a parse error occurs
+	 */
 	public Map<String, Object> read() {
+		startLimits();
+		tablePath = Collections.emptyList();
+		tableSelection = (filter == null) ? PathFilter.SELECTED : PathFilter.PARTIAL;
 		Map<String, Object> map = nextTableContent();
 		
 		if (!hasNext() && pos > 0 && data.charAt(pos - 1) == '[')
-			throw new TomlException("Invalid table declaration at line " + line + ": it never ends");
+			throw error("Invalid table declaration at line " + line + ": it never ends");
 			
 		while (hasNext()) {
-			char c = nextUseful(true);
-			boolean twoBrackets;
-			if (c == '[') {
-				twoBrackets = true;
-				c = nextUseful(false);
-			} else {
-				twoBrackets = false;
-			}
-			pos--;
-			
-			// --- Reads the key --
 			List<String> keyParts = new ArrayList<>(4);
-			boolean insideSquareBrackets = true;
-			while (insideSquareBrackets) {
-				if (!hasNext())
-					throw new TomlException("Invalid table declaration at line " + line + ": it never ends");
-					
-				String name = null;
-				char nameFirstChar = nextUseful(false);
-				switch (nameFirstChar) {
-					case '"': {
-						if (pos + 1 < data.length()) {
-							char c2 = data.charAt(pos);
-							char c3 = data.charAt(pos + 1);
-							if (c2 == '"' && c3 == '"') {
-								pos += 2;
-								name = nextBasicMultilineString();
-							}
-						}
-						if (name == null) {
-							name = nextBasicString();
-						}
-						break;
-					}
-					case '\'': {
-						if (pos + 1 < data.length()) {
-							char c2 = data.charAt(pos);
-							char c3 = data.charAt(pos + 1);
-							if (c2 == '\'' && c3 == '\'') {
-								pos += 2;
-								name = nextLiteralMultilineString();
-							}
-						}
-						if (name == null) {
-							name = nextLiteralString();
-						}
-						break;
-					}
-					default:
-						pos--;// to include the first (already read) non-space character
-						name = nextBareKey(']', '.').trim();
-						if (data.charAt(pos) == ']') {
-							if (!name.isEmpty())
-								keyParts.add(name);
-							insideSquareBrackets = false;
-						} else if (name.isEmpty()) {
-							throw new TomlException("Invalid empty key at line " + line);
-						}
-						
-						pos++;// to go after the character we stopped at in nextBareKey()
-						break;
-				}
-				if (insideSquareBrackets)
-					keyParts.add(name.trim());
-			}
-			
-			// -- Checks --
-			if (keyParts.isEmpty())
-				throw new TomlException("Invalid empty key at line " + line);
-				
-			if (twoBrackets && next() != ']') {// 2 brackets at the start but only one at the end!
-				throw new TomlException("Missing character ']' at line " + line);
-			}
+			boolean twoBrackets = nextTableDeclaration(keyParts);
 			
 			// -- Reads the value (table content) --
-			Map<String, Object> value = nextTableContent();
-			
-			// -- Saves the value --
-			Map<String, Object> valueMap = map;// the map that contains the value
-			for (int i = 0; i < keyParts.size() - 1; i++) {
-				String part = keyParts.get(i);
-				Object child = valueMap.get(part);
-				Map<String, Object> childMap;
-				if (child == null) {// implicit table
-					childMap = new HashMap<>(4);
-					valueMap.put(part, childMap);
-				} else if (child instanceof Map) {// table
-					childMap = (Map) child;
-				} else {// array
-					List<Map> list = (List) child;
-					childMap = list.get(list.size() - 1);
-				}
-				valueMap = childMap;
-			}
-			if (twoBrackets) {// element of a table array
-				String name = keyParts.get(keyParts.size() - 1);
-				Collection<Map> tableArray = (Collection) valueMap.get(name);
-				if (tableArray == null) {
-					tableArray = new ArrayList<>(2);
-					valueMap.put(name, tableArray);
-				}
-				tableArray.add(value);
-			} else {// just a table
-				valueMap.put(keyParts.get(keyParts.size() - 1), value);
+			if (filter != null) {
+				tablePath = keyParts;
+				tableSelection = filter.match(keyParts, null);
 			}
-			
+			Map<String, Object> value = nextTableContent();
+			if (tableSelection == PathFilter.SKIPPED || (tableSelection == PathFilter.PARTIAL && value.isEmpty() && !twoBrackets))
+				continue;// nothing to extract from this table
+			putTable(map, keyParts, twoBrackets, value);
 		}
+		if (compactTables)
+			CompactTable.freeze(map);
 		return map;
 	}
 	
-	private List nextArray() {
-		ArrayList<Object> list = new ArrayList<>();
-		while (true) {
-			char c = nextUseful(true);
-			if (c == ']') {
-				pos++;
-				break;
-			}
-			Object value = nextValue(c);
-			if (!list.isEmpty() && !(list.get(0).getClass().isAssignableFrom(value.getClass())))
-				throw new TomlException("Invalid array at line " + line + ": all the values must have the same type");
-			list.add(value);
-			
-			char afterEntry = nextUseful(true);
-			if (afterEntry == ']') {
-				pos++;
-				break;
-			}
-			if (afterEntry != ',') {
-				throw new TomlException("Invalid array at line " + line + ": expected a comma after each value");
-			}
+	/**
+	 * Reads a table declaration, like [a.b] or [[a.b]], without its content. The first '[' must have been read.
+	 *
+	 * @param keyParts the list that receives the parts of the table's name
+	 * @return true if it declares an element of an array of tables, false if it declares a table
+	 */
+	private boolean nextTableDeclaration(List<String> keyParts) {
+		countEntry();
+		char c = nextUseful(true);
+		boolean twoBrackets;
+		if (c == '[') {
+			twoBrackets = true;
+			c = nextUseful(false);
+		} else {
+			twoBrackets = false;
 		}
 		pos--;
-		list.trimToSize();
-		return list;
-	}
-	
-	private Map<String, Object> nextInlineTable() {
-		Map<String, Object> map = new HashMap<>();
-		while (true) {
-			char nameFirstChar = nextUsefulOrLinebreak();
-			String name = null;
-			switch (nameFirstChar) {
-				case '}':
-					return map;
-				case '"': {
-					if (pos + 1 < data.length()) {
-						char c2 = data.charAt(pos);
-						char c3 = data.charAt(pos + 1);
-						if (c2 == '"' && c3 == '"') {
-							pos += 2;
-							name = nextBasicMultilineString();
-						}
-					}
-					if (name == null)
-						name = nextBasicString();
-					break;
-				}
-				case '\'': {
-					if (pos + 1 < data.length()) {
-						char c2 = data.charAt(pos);
-						char c3 = data.charAt(pos + 1);
-						if (c2 == '\'' && c3 == '\'') {
-							pos += 2;
-							name = nextLiteralMultilineString();
-						}
-					}
-					if (name == null)
-						name = nextLiteralString();
-					break;
-				}
-				default:
-					pos--;// to include the first (already read) non-space character
-					name = nextBareKey(' ', '\t', '=');
-					if (name.isEmpty())
-						throw new TomlException("Invalid empty key at line " + line);
-					break;
-			}
-			
-			char separator = nextUsefulOrLinebreak();// tries to find the '=' sign
-			if (separator != '=')
-				throw new TomlException("Invalid character '" + toString(separator) + "' at line " + line + ": expected '='");
+		
+		// --- Reads the key --
+		boolean insideSquareBrackets = true;
+		while (insideSquareBrackets) {
+			if (!hasNext())
+				throw error("Invalid table declaration at line " + line + ": it never ends");
 				
-			char valueFirstChar = nextUsefulOrLinebreak();
-			Object value = nextValue(valueFirstChar);
-			map.put(name, value);
-			
-			char after = nextUsefulOrLinebreak();
-			if (after == '}' || !hasNext()) {
-				return map;
-			} else if (after != ',') {
-				throw new TomlException("Invalid inline table at line " + line + ": missing comma");
-			}
-		}
-	}
-	
-	private Map<String, Object> nextTableContent() {
-		Map<String, Object> map = new HashMap<>();
-		while (true) {
-			char nameFirstChar = nextUseful(true);
-			if (!hasNext() || nameFirstChar == '[') {
-				return map;
-			}
 			String name = null;
+			char nameFirstChar = nextUseful(false);
 			switch (nameFirstChar) {
 				case '"': {
 					if (pos + 1 < data.length()) {
@@ -364,11 +459,11 @@ public final class TomlReader {
 						char c3 = data.charAt(pos + 1);
 						if (c2 == '"' && c3 == '"') {
 							pos += 2;
-							name = nextBasicMultilineString();
+							name = key(nextBasicMultilineString());
 						}
 					}
 					if (name == null) {
-						name = nextBasicString();
+						name = key(nextBasicString());
 					}
 					break;
 				}
@@ -378,152 +473,843 @@ public final class TomlReader {
 						char c3 = data.charAt(pos + 1);
 						if (c2 == '\'' && c3 == '\'') {
 							pos += 2;
-							name = nextLiteralMultilineString();
+							name = key(nextLiteralMultilineString());
 						}
 					}
 					if (name == null) {
-						name = nextLiteralString();
+						name = key(nextLiteralString());
 					}
 					break;
 				}
 				default:
 					pos--;// to include the first (already read) non-space character
-					name = nextBareKey(' ', '\t', '=');
-					if (name.isEmpty())
-						throw new TomlException("Invalid empty key at line " + line);
+					name = nextBareKey(TABLE_KEY_END).trim();
+					if (data.charAt(pos) == ']') {
+						if (!name.isEmpty())
+							keyParts.add(name);
+						insideSquareBrackets = false;
+					} else if (name.isEmpty()) {
+						throw error("Invalid empty key at line " + line);
+					}
+					
+					pos++;// to go after the character we stopped at in nextBareKey()
 					break;
 			}
-			char separator = nextUsefulOrLinebreak();// tries to find the '=' sign
-			if (separator != '=')// an other character
-				throw new TomlException("Invalid character '" + toString(separator) + "' at line " + line + ": expected '='");
-				
-			char valueFirstChar = nextUsefulOrLinebreak();
-			if (valueFirstChar == '\n') {
-				throw new TomlException("Invalid newline before the value at line " + line);
-			}
-			Object value = nextValue(valueFirstChar);
+			if (insideSquareBrackets)
+				keyParts.add(name.trim());
+			if (keyParts.size() > maxDepth)
+				throw limitError("Too deep nesting", maxDepth);
+		}
+		
+		// -- Checks --
+		if (keyParts.isEmpty())
+			throw error("Invalid empty key at line " + line);
 			
-			char afterEntry = nextUsefulOrLinebreak();
-			if (afterEntry == '#') {
-				pos--;// to make the next nextUseful() call read the # character
-			} else if (afterEntry != '\n') {
-				throw new TomlException("Invalid character '" + toString(afterEntry) + "' after the value at line " + line);
-			}
-			if (map.containsKey(name))
-				throw new TomlException("Duplicate key \"" + name + "\"");
-				
-			map.put(name, value);
+		if (twoBrackets && next() != ']') {// 2 brackets at the start but only one at the end!
+			throw error("Missing character ']' at line " + line);
 		}
+		return twoBrackets;
 	}
 	
-	private Object nextNumberOrDate(char first) {
-		boolean maybeDouble = true, maybeInteger = true, maybeDate = true;
-		StringBuilder sb = new StringBuilder();
-		sb.append(first);
-		char c;
-		whileLoop: while (hasNext()) {
-			c = next();
-			switch (c) {
-				case ':':
-				case 'T':
-				case 'Z':
-					maybeInteger = maybeDouble = false;
-					break;
-				case 'e':
-				case 'E':
-					maybeInteger = maybeDate = false;
-					break;
-				case '.':
-					maybeInteger = false;
-					break;
-				case '-':
-					if (c == '-' && pos != 0 && data.charAt(pos - 1) != 'e' && data.charAt(pos - 1) != 'E')
-						maybeInteger = maybeDouble = false;
-					break;
-				case ',':
-				case ' ':
-				case '\t':
-				case '\n':
-				case '\r':
-				case ']':
-				case '}':
-					pos--;
-					break whileLoop;
+	/**
+	 * Puts a table in the data, creating the implicit tables and the arrays of tables as needed.
+	 *
+	 * @param root the root table of the data
+	 * @param keyParts the parts of the table's name
+	 * @param twoBrackets true if the table is an element of an array of tables
+	 * @param value the table
+	 */
+	private void putTable(Map<String, Object> root, List<String> keyParts, boolean twoBrackets, Map<String, Object> value) {
+		Map<String, Object> valueMap = root;// the map that contains the value
+		for (int i = 0; i < keyParts.size() - 1; i++) {
+			String part = keyParts.get(i);
+			Object child = valueMap.get(part);
+			Map<String, Object> childMap;
+			if (child == null) {// implicit table
+				childMap = newTable();
+				valueMap.put(part, childMap);
+			} else if (child instanceof Map) {// table
+				childMap = (Map) child;
+			} else {// array
+				List<Map> list = (List) child;
+				childMap = list.get(list.size() - 1);
 			}
-			if (c == '_')
-				maybeDate = false;
-			else
-				sb.append(c);
+			valueMap = childMap;
 		}
-		String valueStr = sb.toString();
-		try {
-			if (maybeInteger) {
-				if (valueStr.length() < 10)
-					return Integer.parseInt(valueStr);
-				return Long.parseLong(valueStr);
+		if (twoBrackets) {// element of a table array
+			String name = keyParts.get(keyParts.size() - 1);
+			Collection<Map> tableArray = (Collection) valueMap.get(name);
+			if (tableArray == null) {
+				tableArray = new ArrayList<>(2);
+				valueMap.put(name, tableArray);
 			}
-			
-			if (maybeDouble)
-				return Double.parseDouble(valueStr);
+			tableArray.add(value);
+		} else {// just a table
+			valueMap.put(keyParts.get(keyParts.size() - 1), value);
+		}
+	}
+	
+	/**
+	 * Reads the TOML data lazily. The structure of the data is read immediately, but the values are only parsed
+	 * when they're accessed for the first time. This is faster when only a few values are used. A value that is
+	 * accessed with {@link Map#get(Object)}, or by iterating over its table, is parsed once and then kept.
+	 * <p>
+	 * The syntax of the strings, arrays and inline tables is checked immediately, but the other errors, like an
+	 * invalid number, are only detected when the value is parsed. In that case, the access to the value throws a
+	 * TomlException.
+	 * </p>
+	 *
+	 * @return a {@code Map<String, Object>} containing the data
+	 * @throws TomlException if a parse error occurs
+	 */
+	public Map<String, Object> readLazy() {
+		CharSequence valuesData = (data instanceof Utf8Sequence) ? ((Utf8Sequence) data).duplicate() : data;
+		lazyDocument = new LazyTomlDocument(newReader(valuesData));// keeps working if this reader is reset
+		try {
+			return read();
+		} finally {
+			lazyDocument = null;
+		}
+	}
+	
+	/**
+	 * Extracts some values from the TOML data. Only the values at the given paths are parsed, the rest of the data
+	 * is skipped. The paths are made of keys separated by dots, like "server.port". A path ending with ".*", like
+	 * "db.pool.*", selects all the values in a table. A path that points to a table selects the whole table.
+	 * <p>
+	 * The returned Map only contains the selected values and the tables that contain them.
+	 * </p>
+	 *
+	 * @param paths the paths of the values to extract
+	 * @return a {@code Map<String, Object>} containing the extracted data
+	 * @throws TomlException if a parse error occurs
+	 */
+	public Map<String, Object> extract(String... paths) {
+		filter = new PathFilter(paths);
+		try {
+			return read();
+		} finally {
+			filter = null;
+			tablePath = Collections.emptyList();
+			tableSelection = PathFilter.SELECTED;
+		}
+	}
+	
+	/**
+	 * Checks the TOML data without reading it. No table is created and the values are only checked, so this is
+	 * much faster than {@link #read()}.
+	 * <p>
+	 * The validation doesn't stop at the first error: after an error, it resumes at the next line. Each error is
+	 * returned as a TomlException that gives its line and column, and that has no stack trace. Some errors may be
+	 * consequences of the previous ones, for instance when a string never ends.
+	 * </p>
+	 * <p>
+	 * The errors detected only when the tables are put together, like a table declared over a value, aren't
+	 * reported. The validation stops at the first {@link TomlLimitException}, if the reader has some limits.
+	 * </p>
+	 *
+	 * @return the errors, in their order in the data, or an empty list if the data is valid
+	 */
+	public List<TomlException> validate() {
+		List<TomlException> errors = new ArrayList<>(0);
+		if (validatedKeys == null)
+			validatedKeys = new HashSet<>();
+		validating = true;
+		try {
+			startLimits();
+			validateTableContent(errors);
+			if (!hasNext() && pos > 0 && data.charAt(pos - 1) == '[')
+				errors.add(error("Invalid table declaration at line " + line + ": it never ends"));
+			List<String> keyParts = new ArrayList<>(4);
+			while (hasNext()) {
+				int start = pos - 1, startLine = line;// the '[' has already been read
+				try {
+					keyParts.clear();
+					nextTableDeclaration(keyParts);
+				} catch (TomlLimitException ex) {
+					throw ex;// stops the validation
+				} catch (TomlException ex) {
+					errors.add(ex);
+					skipToNextLine(start, startLine);
+				}
+				validateTableContent(errors);
+			}
+		} catch (TomlLimitException ex) {
+			errors.add(ex);
+		} finally {
+			validating = false;
+			validatedKeys.clear();
+		}
+		return errors;
+	}
+	
+	/**
+	 * Checks the content of a table, like {@link #nextTableContent()} does but without creating it. After an error,
+	 * the validation resumes at the next line.
+	 *
+	 * @param errors the list that receives the errors
+	 */
+	private void validateTableContent(List<TomlException> errors) {
+		validatedKeys.clear();
+		while (true) {
+			char nameFirstChar = nextUseful(true);
+			if (!hasNext() || nameFirstChar == '[')
+				return;
+			int start = pos - 1, startLine = line;// the first character of the key has already been read
+			try {
+				String name = nextKey(nameFirstChar);
+				char separator = nextUsefulOrLinebreak();// tries to find the '=' sign
+				if (separator != '=')// an other character
+					throw error("Invalid character '" + toString(separator) + "' at line " + line + ": expected '='");
+					
+				char valueFirstChar = nextUsefulOrLinebreak();
+				if (valueFirstChar == '\n')
+					throw error("Invalid newline before the value at line " + line);
+				skipValue(valueFirstChar);
 				
-			if (maybeDate)
-				return Toml.DATE_FORMATTER.parseBest(valueStr, ZonedDateTime::from, LocalDateTime::from, LocalDate::from);
+				char afterEntry = nextUsefulOrLinebreak();
+				if (afterEntry == '#') {
+					pos--;// to make the next nextUseful() call read the # character
+				} else if (afterEntry != '\n') {
+					throw error("Invalid character '" + toString(afterEntry) + "' after the value at line " + line);
+				}
+				if (!validatedKeys.add(name))
+					errors.add(new TomlException("Duplicate key \"" + name + "\" at line " + startLine, null, startLine,
+							column(start + 1), false));
+			} catch (TomlLimitException ex) {
+				throw ex;// stops the validation
+			} catch (TomlException ex) {
+				errors.add(ex);
+				depth = 0;
+				skipToNextLine(start, startLine);
+			}
+		}
+	}
+	
+	/**
+	 * Goes to the beginning of the line that follows an error, and recounts the lines from the beginning of the
+	 * erroneous statement, because the line counter may not be up to date after an error.
+	 *
+	 * @param start the index of the first character of the statement
+	 * @param startLine the line of the first character of the statement
+	 */
+	private void skipToNextLine(int start, int startLine) {
+		int end = Math.min(pos, data.length());
+		if (end <= start || data.charAt(end - 1) != '\n') {// the error isn't at the end of a line
+			int nextLinebreak = indexOf('\n', Math.max(end, start));
+			end = (nextLinebreak == -1) ? data.length() : nextLinebreak + 1;
+		}
+		line = startLine;
+		for (int i = start; i < end; i++) {
+			if (data.charAt(i) == '\n')
+				line++;
+		}
+		pos = end;
+	}
+	
+	/**
+	 * Reads the TOML data in parallel, with the common ForkJoinPool.
+	 *
+	 * @return a {@code Map<String, Object>} containing the parsed data
+	 * @throws TomlException if a parse error occurs
+	 * @see #readParallel(ForkJoinPool)
+	 */
+	public Map<String, Object> readParallel() {
+		return readParallel(ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Reads the TOML data in parallel. The data is first split at its table declarations, with a quick scan that
+	 * skips the values. Then the contents of the tables are parsed by the given pool, and finally the tables are
+	 * put together in their order of declaration. The result, and the exception thrown if the data is invalid, are
+	 * the same as with {@link #read()}.
+	 * <p>
+	 * This is faster than {@link #read()} for big documents that contain many tables, if several processors are
+	 * available. Small documents are read sequentially.
+	 * </p>
+	 *
+	 * @param pool the pool that parses the tables
+	 * @return a {@code Map<String, Object>} containing the parsed data
+	 * @throws TomlException if a parse error occurs
+	 */
+	public Map<String, Object> readParallel(ForkJoinPool pool) {
+		if (data.length() - pos < 2 * SECTIONS_BATCH_LENGTH || limits != TomlReaderLimits.NONE)
+			return read();// the limits apply to the whole data, so it's read sequentially
+			
+		// -- Splits the data --
+		int startPos = pos, startLine = line;
+		List<Section> sections = new ArrayList<>();
+		sections.add(new Section(null, false, pos, line));
+		tableSelection = PathFilter.SKIPPED;
+		try {
+			nextTableContent();
+			if (!hasNext() && pos > 0 && data.charAt(pos - 1) == '[')
+				throw error("Invalid table declaration at line " + line + ": it never ends");
+			while (hasNext()) {
+				List<String> keyParts = new ArrayList<>(4);
+				boolean twoBrackets = nextTableDeclaration(keyParts);
+				sections.add(new Section(keyParts, twoBrackets, pos, line));
+				nextTableContent();
+			}
+		} catch (TomlException ex) {// read() gives the first error, which may be before this one
+			pos = startPos;
+			line = startLine;
+			return read();
+		} finally {
+			tableSelection = PathFilter.SELECTED;
+		}
+		
+		// -- Parses the contents of the tables --
+		pool.invoke(new SectionsTask(sections, 0, sections.size()));
+		
+		// -- Puts the tables together --
+		Map<String, Object> map = null;
+		for (Section section : sections) {
+			if (section.error != null)
+				throw section.error;
+			if (map == null)
+				map = section.content;
+			else
+				putTable(map, section.keyParts, section.twoBrackets, section.content);
+		}
+		if (compactTables)
+			CompactTable.freeze(map);
+		return map;
+	}
+	
+	/**
+	 * A table of the data, read in parallel.
+	 */
+	private static final class Section {
+		final List<String> keyParts;// null for the root table
+		final boolean twoBrackets;
+		final int start, line;// the position of the table's content
+		Map<String, Object> content;
+		RuntimeException error;
+		
+		Section(List<String> keyParts, boolean twoBrackets, int start, int line) {
+			this.keyParts = keyParts;
+			this.twoBrackets = twoBrackets;
+			this.start = start;
+			this.line = line;
+		}
+	}
+	
+	/**
+	 * Parses the contents of some consecutive sections, splitting them in smaller tasks if they're big enough.
+	 */
+	private final class SectionsTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<Section> sections;
+		private final int from, to;
+		
+		SectionsTask(List<Section> sections, int from, int to) {
+			this.sections = sections;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			int end = (to == sections.size()) ? data.length() : sections.get(to).start;
+			if (to - from > 1 && end - sections.get(from).start > 2 * SECTIONS_BATCH_LENGTH) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SectionsTask(sections, from, middle), new SectionsTask(sections, middle, to));
+				return;
+			}
+			CharSequence sectionsData = (data instanceof Utf8Sequence) ? ((Utf8Sequence) data).duplicate() : data;
+			TomlReader reader = newReader(sectionsData);
+			for (int i = from; i < to; i++) {
+				Section section = sections.get(i);
+				reader.pos = section.start;
+				reader.line = section.line;
+				try {
+					section.content = reader.nextTableContent();
+				} catch (RuntimeException ex) {
+					section.error = ex;
+					break;// the next sections don't matter
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Parses the value that begins at the given position. Used by {@link LazyTomlDocument}. The counters of the
+	 * limits restart from zero for each value: the whole document has already been checked when its structure was
+	 * read, because the values that are skipped are counted too.
+	 */
+	Object valueAt(int index, int line) {
+		this.pos = index + 1;
+		this.line = line;
+		this.depth = 0;
+		this.entries = 0;
+		Object value = nextValue(data.charAt(index));
+		if (compactTables)
+			CompactTable.freeze(value);
+		return value;
+	}
+	
+	/**
+	 * Sets the limits of the data read by this reader. Default is {@link TomlReaderLimits#NONE}. When a limit is
+	 * exceeded, the reading stops with a {@link TomlLimitException}.
+	 * <p>
+	 * The limits apply to the whole data, so {@link #readParallel()} reads it sequentially when there are limits.
+	 * With {@link #readLazy()}, the whole data is checked when its structure is read, and each value is checked on
+	 * its own when it's parsed.
+	 * </p>
+	 *
+	 * @param limits the limits
+	 */
+	public void setLimits(TomlReaderLimits limits) {
+		this.limits = Objects.requireNonNull(limits);
+		this.maxDepth = limits.getMaxDepth();
+		this.maxStringLength = limits.getMaxStringLength();
+		this.maxArrayLength = limits.getMaxArrayLength();
+		this.maxEntries = limits.getMaxEntries();
+	}
+	
+	/**
+	 * Sets whether the arrays of numbers are returned as lists backed by primitive arrays. Default is false.
+	 * <p>
+	 * If true, the arrays of integers are returned as {@link TomlArrays.IntList} or {@link TomlArrays.LongList},
+	 * and the arrays of decimals as {@link TomlArrays.DoubleList}. The numbers aren't boxed, which saves a lot of
+	 * memory for big arrays. If false, all the arrays are returned as {@link ArrayList}.
+	 * </p>
+	 *
+	 * @param primitiveArrays true to use primitive arrays for the arrays of numbers
+	 */
+	public void setPrimitiveArrays(boolean primitiveArrays) {
+		this.primitiveArrays = primitiveArrays;
+	}
+	
+	/**
+	 * Sets whether the tables are compact and read-only. Default is true.
+	 * <p>
+	 * If true, the tables are returned as compact maps, which take much less memory than HashMaps. They keep the
+	 * order of their keys, and they can't be modified. If false, the tables are returned as {@link HashMap}.
+	 * </p>
+	 *
+	 * @param compactTables true to return compact and read-only tables, false to return HashMaps
+	 */
+	public void setCompactTables(boolean compactTables) {
+		this.compactTables = compactTables;
+	}
+	
+	/**
+	 * Sets the cache of Strings shared with other readers. The keys are taken from the cache, so that identical
+	 * keys are stored only once. The string values that don't contain any escape sequence may be taken from the
+	 * cache too.
+	 *
+	 * @param stringCache the cache, or null to use no cache
+	 * @param cacheValues true to cache the string values, false to cache only the keys
+	 */
+	public void setStringCache(TomlStringCache stringCache, boolean cacheValues) {
+		this.stringCache = stringCache;
+		this.cacheStringValues = cacheValues;
+	}
+	
+	/**
+	 * Creates a new reader with the same settings as this one.
+	 */
+	private TomlReader newReader(CharSequence data) {
+		TomlReader reader = new TomlReader(data, strictAsciiBareKeys);
+		reader.setLimits(limits);
+		reader.stringCache = stringCache;
+		reader.cacheStringValues = cacheStringValues;
+		reader.primitiveArrays = primitiveArrays;
+		reader.compactTables = compactTables;
+		return reader;
+	}
+	
+	/**
+	 * Returns the instance of a quoted key that should be put in the data.
+	 */
+	private String key(String name) {
+		return (stringCache == null) ? name : stringCache.intern(name);
+	}
+	
+	/**
+	 * Returns the String between two positions, from the string cache if there is one.
+	 */
+	private String cachedSubstring(int start, int end) {
+		return (stringCache == null) ? substring(start, end) : stringCache.intern(data, start, end);
+	}
+	
+	private Map<String, Object> newTable() {
+		if (lazyDocument != null)
+			return lazyDocument.newTable();
+		return compactTables ? new CompactTable() : new HashMap<>();
+	}
+	
+	private List nextArray() {
+		ArrayList<Object> list = new ArrayList<>();
+		while (true) {
+			char c = nextUseful(true);
+			if (c == ']') {
+				pos++;
+				break;
+			}
+			if (primitiveArrays && list.isEmpty() && isNumberStart(c)) {
+				int start = pos - 1;
+				skipNumberOrDate();
+				int kind = isDate(data, start, pos) ? NumberScanner.INVALID : numberScanner.scan(data, start, pos);
+				if (kind != NumberScanner.INVALID)
+					return nextNumberArray(kind);
+				pos = start + 1;// not a number: reads it normally
+			}
+			if (list.size() == maxArrayLength)
+				throw limitError("Too long array", maxArrayLength);
+			Object value = nextValue(c);
+			if (!list.isEmpty() && !sameType(list.get(0), value))
+				throw error("Invalid array at line " + line + ": all the values must have the same type");
+			list.add(value);
+			
+			char afterEntry = nextUseful(true);
+			if (afterEntry == ']') {
+				pos++;
+				break;
+			}
+			if (afterEntry != ',') {
+				throw error("Invalid array at line " + line + ": expected a comma after each value");
+			}
+		}
+		pos--;
+		list.trimToSize();
+		return list;
+	}
+	
+	/**
+	 * Reads an array of numbers into a primitive array. The first number has just been scanned by the
+	 * numberScanner.
+	 *
+	 * @param kind the kind of the first number, which must be the kind of all the numbers
+	 */
+	private List<? extends Number> nextNumberArray(int kind) {
+		boolean decimals = (kind == NumberScanner.DOUBLE);
+		long[] longs = decimals ? null : new long[16];
+		double[] doubles = decimals ? new double[16] : null;
+		int size = 0;
+		while (true) {
+			if (size == maxArrayLength)
+				throw limitError("Too long array", maxArrayLength);
+			countEntry();
+			if (decimals) {
+				if (size == doubles.length)
+					doubles = Arrays.copyOf(doubles, size * 2);
+				doubles[size++] = numberScanner.doubleValue;
+			} else {
+				if (size == longs.length)
+					longs = Arrays.copyOf(longs, size * 2);
+				longs[size++] = numberScanner.longValue;
+			}
+			
+			char afterEntry = nextUseful(true);
+			if (afterEntry == ']')
+				break;
+			if (afterEntry != ',')
+				throw error("Invalid array at line " + line + ": expected a comma after each value");
+				
+			char c = nextUseful(true);
+			if (c == ']')
+				break;
+			if (!isNumberStart(c)) {
+				nextValue(c);// throws an exception if the value is invalid
+				throw error("Invalid array at line " + line + ": all the values must have the same type");
+			}
+			int start = pos - 1;
+			skipNumberOrDate();
+			int valueKind = isDate(data, start, pos) ? NumberScanner.INVALID : numberScanner.scan(data, start, pos);
+			if (valueKind != kind) {
+				if (valueKind == NumberScanner.INVALID)
+					parseNumberOrDate(data, start, pos, numberScanner, line);// throws an exception if the value is invalid
+				throw error("Invalid array at line " + line + ": all the values must have the same type");
+			}
+		}
+		switch (kind) {
+			case NumberScanner.INTEGER:
+				int[] ints = new int[size];
+				for (int i = 0; i < size; i++) {
+					ints[i] = (int) longs[i];
+				}
+				return new TomlArrays.IntList(ints);
+			case NumberScanner.LONG:
+				return new TomlArrays.LongList(Arrays.copyOf(longs, size));
+			default:
+				return new TomlArrays.DoubleList(Arrays.copyOf(doubles, size));
+		}
+	}
+	
+	/**
+	 * Checks if two values have the same TOML type, to ensure that the arrays are homogeneous.
+	 */
+	private static boolean sameType(Object a, Object b) {
+		return a.getClass() == b.getClass() || (a instanceof List && b instanceof List);
+	}
+	
+	private static boolean isNumberStart(char c) {
+		return (c >= '0' && c <= '9') || c == '+' || c == '-';
+	}
+	
+	private Map<String, Object> nextInlineTable() {
+		Map<String, Object> map = compactTables ? new CompactTable() : new HashMap<>();
+		while (true) {
+			char nameFirstChar = nextUsefulOrLinebreak();
+			if (nameFirstChar == '}')
+				return map;
+			String name = nextKey(nameFirstChar);
+			
+			char separator = nextUsefulOrLinebreak();// tries to find the '=' sign
+			if (separator != '=')
+				throw error("Invalid character '" + toString(separator) + "' at line " + line + ": expected '='");
+				
+			char valueFirstChar = nextUsefulOrLinebreak();
+			Object value = nextValue(valueFirstChar);
+			map.put(name, value);
+			
+			char after = nextUsefulOrLinebreak();
+			if (after == '}' || !hasNext()) {
+				return map;
+			} else if (after != ',') {
+				throw error("Invalid inline table at line " + line + ": missing comma");
+			}
+		}
+	}
+	
+	/**
+	 * Reads the key of a key/value pair. Its first character has already been read.
+	 */
+	private String nextKey(char firstChar) {
+		switch (firstChar) {
+			case '"':
+				if (pos + 1 < data.length() && data.charAt(pos) == '"' && data.charAt(pos + 1) == '"') {
+					pos += 2;
+					return key(nextBasicMultilineString());
+				}
+				return key(nextBasicString());
+			case '\'':
+				if (pos + 1 < data.length() && data.charAt(pos) == '\'' && data.charAt(pos + 1) == '\'') {
+					pos += 2;
+					return key(nextLiteralMultilineString());
+				}
+				return key(nextLiteralString());
+			default:
+				pos--;// to include the first (already read) non-space character
+				String name = nextBareKey(KEY_END);
+				if (name.isEmpty())
+					throw error("Invalid empty key at line " + line);
+				return name;
+		}
+	}
+	
+	private Map<String, Object> nextTableContent() {
+		Map<String, Object> map = newTable();
+		while (true) {
+			char nameFirstChar = nextUseful(true);
+			if (!hasNext() || nameFirstChar == '[') {
+				return map;
+			}
+			String name;
+			if (tableSelection == PathFilter.SKIPPED) {
+				name = null;
+				skipKey(nameFirstChar);// the key isn't needed
+			} else {
+				name = nextKey(nameFirstChar);
+			}
+			char separator = nextUsefulOrLinebreak();// tries to find the '=' sign
+			if (separator != '=')// an other character
+				throw error("Invalid character '" + toString(separator) + "' at line " + line + ": expected '='");
+				
+			char valueFirstChar = nextUsefulOrLinebreak();
+			if (valueFirstChar == '\n') {
+				throw error("Invalid newline before the value at line " + line);
+			}
+			Object value;
+			int selection = (tableSelection == PathFilter.PARTIAL) ? filter.match(tablePath, name) : tableSelection;
+			if (selection == PathFilter.SKIPPED) {
+				value = null;
+				skipValue(valueFirstChar);
+			} else if (lazyDocument != null) {
+				value = lazyDocument.newValue(pos - 1, line);
+				skipValue(valueFirstChar);
+			} else {
+				value = nextValue(valueFirstChar);
+				if (selection == PathFilter.PARTIAL)// an inline table or an array of inline tables
+					value = filter.prune(tablePath, name, value);
+			}
+			
+			char afterEntry = nextUsefulOrLinebreak();
+			if (afterEntry == '#') {
+				pos--;// to make the next nextUseful() call read the # character
+			} else if (afterEntry != '\n') {
+				throw error("Invalid character '" + toString(afterEntry) + "' after the value at line " + line);
+			}
+			if (value == null)// not extracted
+				continue;
+			if (map.containsKey(name))
+				throw error("Duplicate key \"" + name + "\"");
 				
+			map.put(name, value);
+		}
+	}
+	
+	private Object nextNumberOrDate(char first) {
+		int start = pos - 1;
+		skipNumberOrDate();
+		return parseNumberOrDate(data, start, pos, numberScanner, line);
+	}
+	
+	/**
+	 * Checks the value skipped by {@link #skipNumberOrDate()}. The numbers are checked without being created.
+	 *
+	 * @return the type of the value
+	 */
+	private Class<?> checkNumberOrDate(int start) {
+		Class<?> type;
+		if (isDate(data, start, pos)) {
+			TemporalAccessor date = DateTimes.parse(data, start, pos);
+			type = (date != null) ? date.getClass() : unusualDateType(substring(start, pos));
+		} else {
+			switch (numberScanner.scan(data, start, pos)) {
+				case NumberScanner.INTEGER:
+					type = Integer.class;
+					break;
+				case NumberScanner.LONG:
+					type = Long.class;
+					break;
+				case NumberScanner.DOUBLE:
+					type = Double.class;
+					break;
+				default:
+					type = null;
+			}
+		}
+		if (type == null)
+			throw error("Invalid value: \"" + substring(start, pos) + "\" at line " + line);
+		return type;
+	}
+	
+	/**
+	 * Returns the type of a datetime parsed by the DATE_FORMATTER, or null if it's invalid.
+	 */
+	private static Class<?> unusualDateType(String str) {
+		try {
+			return Toml.DATE_FORMATTER.parseBest(str, ZonedDateTime::from, LocalDateTime::from, LocalDate::from).getClass();
 		} catch (Exception ex) {
-			throw new TomlException("Invalid value: \"" + valueStr + "\" at line " + line, ex);
+			return null;
+		}
+	}
+	
+	private void skipNumberOrDate() {
+		int length = data.length();
+		while (pos < length && (charClasses(data.charAt(pos)) & VALUE_END) == 0) {
+			pos++;
 		}
-		
-		throw new TomlException("Invalid value: \"" + valueStr + "\" at line " + line);
 	}
 	
-	private String nextBareKey(char... allowedEnds) {
-		String keyName;
-		for (int i = pos; i < data.length(); i++) {
+	/**
+	 * Parses a number or a datetime.
+	 *
+	 * @param data the data containing the value
+	 * @param start the index of the first character of the value, inclusive
+	 * @param end the index of the last character of the value, exclusive
+	 * @param scanner the scanner to use for the numbers
+	 * @param line the current line, for the error messages
+	 */
+	static Object parseNumberOrDate(CharSequence data, int start, int end, NumberScanner scanner, int line) {
+		if (isDate(data, start, end)) {
+			TemporalAccessor date = DateTimes.parse(data, start, end);
+			if (date != null)
+				return date;
+			// Unusual datetime, or invalid one: the DATE_FORMATTER handles it
+			String valueStr = data.subSequence(start, end).toString();
+			try {
+				return Toml.DATE_FORMATTER.parseBest(valueStr, ZonedDateTime::from, LocalDateTime::from, LocalDate::from);
+			} catch (Exception ex) {
+				throw new TomlException("Invalid value: \"" + valueStr + "\" at line " + line, ex);
+			}
+		}
+		if (scanner.scan(data, start, end) == NumberScanner.INVALID)
+			throw new TomlException("Invalid value: \"" + data.subSequence(start, end) + "\" at line " + line);
+		return scanner.value();
+	}
+	
+	/**
+	 * Checks if a value is a datetime, ie if it contains a ':', a 'T', a 'Z', or a '-' that isn't a sign.
+	 */
+	private static boolean isDate(CharSequence data, int start, int end) {
+		for (int i = start; i < end; i++) {
 			char c = data.charAt(i);
-			for (char allowedEnd : allowedEnds) {
-				if (c == allowedEnd) {// checks if this character allowed to end this bare key
-					keyName = data.substring(pos, i);
-					pos = i;
-					return keyName;
-				}
+			if (c == ':' || c == 'T' || c == 'Z')
+				return true;
+			if (c == '-' && i != start) {
+				char previous = data.charAt(i - 1);
+				if (previous != 'e' && previous != 'E')
+					return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Reads a bare key.
+	 *
+	 * @param ends the classes of the characters that end the key: KEY_END or TABLE_KEY_END
+	 */
+	private String nextBareKey(int ends) {
+		int start = pos;
+		skipBareKey(ends);
+		return cachedSubstring(start, pos);
+	}
+	
+	private void skipBareKey(int ends) {
+		int allowed = strictAsciiBareKeys ? STRICT_KEY : LENIENT_KEY;
+		int length = data.length();
+		for (int i = pos; i < length; i++) {
+			char c = data.charAt(i);
+			int classes = charClasses(c);
+			if ((classes & ends) != 0) {// this character ends the bare key
+				checkStringLength(pos, i);
+				pos = i;
+				return;
+			}
+			if ((classes & allowed) == 0) {
+				pos = i + 1;// the error is at this character
+				throw error("Forbidden character '" + toString(c) + "' in "
+						+ (strictAsciiBareKeys ? "strict" : "lenient") + " bare-key at line " + line);
 			}
-			if (strictAsciiBareKeys) {
-				if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-'))
-					throw new TomlException("Forbidden character '" + toString(c) + "' in strict bare-key at line " + line);
-			} else if (c <= ' ' || c == '#' || c == '=' || c == '.' || c == '[' || c == ']') {// lenient bare key
-				throw new TomlException("Forbidden character '" + toString(c) + "' in lenient bare-key at line " + line);
-			} // else continue reading
 		}
-		throw new TomlException(
+		throw error(
 				"Invalid key/value pair at line " + line + " end of data reached before the value attached to the key was found");
 	}
 	
 	private String nextLiteralString() {
-		int index = data.indexOf('\'', pos);
+		int index = indexOf('\'', pos);
 		if (index == -1)
-			throw new TomlException("Invalid literal String at line " + line + ": it never ends");
-			
-		String str = data.substring(pos, index);
+			throw error("Invalid literal String at line " + line + ": it never ends");
+		checkStringLength(pos, index);
+		
+		String str = cacheStringValues ? cachedSubstring(pos, index) : substring(pos, index);
 		if (str.indexOf('\n') != -1)
-			throw new TomlException("Invalid literal String at line " + line + ": newlines are not allowed here");
+			throw error("Invalid literal String at line " + line + ": newlines are not allowed here");
 			
 		pos = index + 1;
 		return str;
 	}
 	
 	private String nextLiteralMultilineString() {
-		int index = data.indexOf("'''", pos);
+		int index = indexOf("'''", pos);
 		if (index == -1)
-			throw new TomlException("Invalid multiline literal String at line " + line + ": it never ends");
+			throw error("Invalid multiline literal String at line " + line + ": it never ends");
+		checkStringLength(pos, index);
 		String str;
 		if (data.charAt(pos) == '\r' && data.charAt(pos + 1) == '\n') {// "\r\n" at the beginning of the string
-			str = data.substring(pos + 2, index);
+			str = substring(pos + 2, index);
 			line++;
 		} else if (data.charAt(pos) == '\n') {// '\n' at the beginning of the string
-			str = data.substring(pos + 1, index);
+			str = substring(pos + 1, index);
 			line++;
 		} else {
-			str = data.substring(pos, index);
+			str = substring(pos, index);
 		}
 		for (int i = 0; i < str.length(); i++) {// count lines
 			char c = str.charAt(i);
@@ -535,119 +1321,368 @@ public final class TomlReader {
 	}
 	
 	private String nextBasicString() {
-		StringBuilder sb = new StringBuilder();
-		boolean escape = false;
-		while (hasNext()) {
-			char c = next();
+		StringBuilder sb = null;// only used if the string contains escape sequences
+		int start = pos;
+		int runStart = pos;// the beginning of the current run of unescaped characters
+		int special;
+		while ((special = nextBasicStringSpecial(pos)) != -1) {
+			checkStringLength(start, special);// fails before the string is built
+			char c = data.charAt(special);
+			pos = special + 1;
 			if (c == '\n' || c == '\r')
-				throw new TomlException("Invalid basic String at line " + line + ": newlines not allowed");
-			if (escape) {
-				sb.append(unescape(c));
-				escape = false;
-			} else if (c == '\\') {
-				escape = true;
-			} else if (c == '"') {
+				throw error("Invalid basic String at line " + line + ": newlines not allowed");
+			if (c == '\\') {
+				if (sb == null) {
+					sb = stringBuilder;
+					sb.setLength(0);
+				}
+				appendTo(sb, runStart, pos - 1);
+				if (!hasNext())
+					break;
+				unescape(next(), sb);
+				runStart = pos;
+			} else {// c == '"'
+				if (sb == null)
+					return cacheStringValues ? cachedSubstring(runStart, pos - 1) : substring(runStart, pos - 1);
+				appendTo(sb, runStart, pos - 1);
 				return sb.toString();
-			} else {
-				sb.append(c);
 			}
 		}
-		throw new TomlException("Invalid basic String at line " + line + ": it nerver ends");
+		checkStringLength(start, data.length());
+		throw error("Invalid basic String at line " + line + ": it nerver ends");
+	}
+	
+	/**
+	 * Returns the index of the first '"', '\\', '\n' or '\r' at or after the given index, or -1 if there is none.
+	 */
+	private int nextBasicStringSpecial(int fromIndex) {
+		if (data instanceof Utf8Sequence)
+			return ((Utf8Sequence) data).indexOfAny('"', '\\', '\n', '\r', fromIndex);
+		int length = data.length();
+		for (int i = fromIndex; i < length; i++) {
+			if ((charClasses(data.charAt(i)) & BASIC_STRING_SPECIAL) != 0)
+				return i;
+		}
+		return -1;
 	}
 	
 	private String nextBasicMultilineString() {
-		StringBuilder sb = new StringBuilder();
-		boolean first = true, escape = false;
-		while (hasNext()) {
-			char c = next();
-			if (first && (c == '\r' || c == '\n')) {
-				if (c == '\r' && hasNext() && data.charAt(pos) == '\n')// "\r\n"
-					pos++;// so that it is NOT read by the next call to next()
-				else
-					line++;
-				first = false;
-				continue;
-			}
-			if (escape) {
+		StringBuilder sb = stringBuilder;
+		sb.setLength(0);
+		int start = pos;
+		if (hasNext() && data.charAt(pos) == '\n') {// '\n' at the beginning of the string
+			pos++;
+			line++;
+		} else if (pos + 1 < data.length() && data.charAt(pos) == '\r' && data.charAt(pos + 1) == '\n') {// "\r\n"
+			pos += 2;
+			line++;
+		}
+		int runStart = pos;// the beginning of the current run of unescaped characters
+		int special;
+		while ((special = nextBasicStringSpecial(pos)) != -1) {
+			checkStringLength(start, special);// fails before the string is built
+			char c = data.charAt(special);
+			pos = special + 1;
+			if (c == '\\') {
+				appendTo(sb, runStart, pos - 1);
+				if (!hasNext())
+					break;
+				c = next();
 				if (c == '\r' || c == '\n' || c == ' ' || c == '\t') {
-					if (c == '\r' && hasNext() && data.charAt(pos) == '\n')// "\r\n"
-						pos++;
-					else if (c == '\n')
+					if (c == '\n')
 						line++;
 					nextUseful(false);
-					pos--;// so that it is read by the next call to next()
+					pos--;// so that it is scanned by the next search
 				} else {
-					sb.append(unescape(c));
+					unescape(c, sb);
 				}
-				escape = false;
-			} else if (c == '\\') {
-				escape = true;
+				runStart = pos;
 			} else if (c == '"') {
 				if (pos + 1 >= data.length())
 					break;
 				if (data.charAt(pos) == '"' && data.charAt(pos + 1) == '"') {
+					appendTo(sb, runStart, pos - 1);
 					pos += 2;
 					return sb.toString();
 				}
 			} else if (c == '\n') {
 				line++;
-				sb.append(c);
-			} else {
-				sb.append(c);
 			}
 		}
-		throw new TomlException("Invalid multiline basic String at line " + line + ": it never ends");
+		checkStringLength(start, data.length());
+		throw error("Invalid multiline basic String at line " + line + ": it never ends");
+	}
+	
+	/**
+	 * Skips a value without parsing it. Only the syntax of the strings, arrays and inline tables is checked, unless
+	 * the data is being validated: then all the values are checked.
+	 *
+	 * @return the type of the value when validating, which is List for the arrays and Map for the inline tables
+	 */
+	private Class<?> skipValue(char firstChar) {
+		countEntry();
+		switch (firstChar) {
+			case '+':
+			case '-':
+			case '0':
+			case '1':
+			case '2':
+			case '3':
+			case '4':
+			case '5':
+			case '6':
+			case '7':
+			case '8':
+			case '9': {
+				int start = pos - 1;
+				skipNumberOrDate();
+				return validating ? checkNumberOrDate(start) : null;
+			}
+			case '"':
+			case '\'':
+				skipString(firstChar);
+				return String.class;
+			case '[':
+				enterNested();
+				skipArray();
+				depth--;
+				return List.class;
+			case '{':
+				enterNested();
+				skipInlineTable();
+				depth--;
+				return Map.class;
+			case 't':
+			case 'f':
+				nextBoolean(firstChar);// checks that it's true or false
+				return Boolean.class;
+			default:
+				throw error("Invalid character '" + toString(firstChar) + "' at line " + line);
+		}
+	}
+	
+	private void skipArray() {
+		Class<?> firstType = null;
+		int length = 0;
+		while (true) {
+			char c = nextUseful(true);
+			if (c == ']')
+				return;
+			if (length++ == maxArrayLength)
+				throw limitError("Too long array", maxArrayLength);
+			Class<?> type = skipValue(c);
+			if (firstType == null)
+				firstType = type;
+			else if (validating && type != firstType)
+				throw error("Invalid array at line " + line + ": all the values must have the same type");
+			char afterEntry = nextUseful(true);
+			if (afterEntry == ']')
+				return;
+			if (afterEntry != ',')
+				throw error("Invalid array at line " + line + ": expected a comma after each value");
+		}
+	}
+	
+	private void skipInlineTable() {
+		while (true) {
+			char nameFirstChar = nextUsefulOrLinebreak();
+			if (nameFirstChar == '}')
+				return;
+			skipKey(nameFirstChar);
+			char separator = nextUsefulOrLinebreak();// tries to find the '=' sign
+			if (separator != '=')
+				throw error("Invalid character '" + toString(separator) + "' at line " + line + ": expected '='");
+			skipValue(nextUsefulOrLinebreak());
+			char after = nextUsefulOrLinebreak();
+			if (after == '}' || !hasNext()) {
+				return;
+			} else if (after != ',') {
+				throw error("Invalid inline table at line " + line + ": missing comma");
+			}
+		}
 	}
 	
-	private char unescape(char c) {
+	/**
+	 * Skips the key of a key/value pair. Its first character has already been read.
+	 */
+	private void skipKey(char firstChar) {
+		if (firstChar == '"' || firstChar == '\'') {
+			skipString(firstChar);
+		} else {
+			pos--;// to include the first (already read) non-space character
+			int start = pos;
+			skipBareKey(KEY_END);
+			if (pos == start)
+				throw error("Invalid empty key at line " + line);
+		}
+	}
+	
+	/**
+	 * Skips a string. Its first quote has already been read.
+	 */
+	private void skipString(char quote) {
+		boolean multiline = pos + 1 < data.length() && data.charAt(pos) == quote && data.charAt(pos + 1) == quote;
+		if (multiline) {
+			pos += 2;
+		}
+		int start = pos;
+		if (quote == '\'') {
+			int index = multiline ? indexOf("\'\'\'", pos) : indexOf('\'', pos);
+			if (index == -1)
+				throw error("Invalid literal String at line " + line + ": it never ends");
+			checkStringLength(start, index);
+			for (int i = pos; i < index; i++) {
+				if (data.charAt(i) == '\n') {
+					if (!multiline)
+						throw error("Invalid literal String at line " + line + ": newlines are not allowed here");
+					line++;
+				}
+			}
+			pos = index + (multiline ? 3 : 1);
+			return;
+		}
+		while (hasNext()) {
+			char c = next();
+			if (c == '\\') {
+				if (!hasNext())
+					break;
+				char escaped = next();
+				if (escaped == '\n')
+					line++;
+				boolean lineEnding = multiline && (escaped == ' ' || escaped == '\t' || escaped == '\r' || escaped == '\n');
+				if (validating && !lineEnding) {
+					unescape(escaped, stringBuilder);// checks the escape sequence
+					stringBuilder.setLength(0);
+				}
+			} else if (c == '"') {
+				if (!multiline) {
+					checkStringLength(start, pos - 1);
+					return;
+				}
+				if (pos + 1 < data.length() && data.charAt(pos) == '"' && data.charAt(pos + 1) == '"') {
+					checkStringLength(start, pos - 1);
+					pos += 2;
+					return;
+				}
+			} else if (c == '\n' || c == '\r') {
+				if (!multiline)
+					throw error("Invalid basic String at line " + line + ": newlines not allowed");
+				if (c == '\n')
+					line++;
+			}
+		}
+		throw error("Invalid basic String at line " + line + ": it never ends");
+	}
+	
+	/**
+	 * Appends the character represented by an escape sequence. The backslash has already been read.
+	 */
+	private void unescape(char c, StringBuilder sb) {
 		switch (c) {
 			case 'b':
-				return '\b';
+				sb.append('\b');
+				break;
 			case 't':
-				return '\t';
+				sb.append('\t');
+				break;
 			case 'n':
-				return '\n';
+				sb.append('\n');
+				break;
 			case 'f':
-				return '\f';
+				sb.append('\f');
+				break;
 			case 'r':
-				return '\r';
+				sb.append('\r');
+				break;
 			case '"':
-				return '"';
+				sb.append('"');
+				break;
 			case '\\':
-				return '\\';
-			case 'u': {// unicode uXXXX
-				if (data.length() - pos < 5)
-					throw new TomlException("Invalid unicode code point at line " + line);
-				String unicode = data.substring(pos, pos + 4);
-				pos += 4;
-				try {
-					int hexVal = Integer.parseInt(unicode, 16);
-					return (char) hexVal;
-				} catch (NumberFormatException ex) {
-					throw new TomlException("Invalid unicode code point at line " + line, ex);
-				}
-			}
+				sb.append('\\');
+				break;
+			case 'u':// unicode uXXXX
+				sb.append((char) nextHexValue(4));
+				break;
 			case 'U': {// unicode UXXXXXXXX
-				if (data.length() - pos < 9)
-					throw new TomlException("Invalid unicode code point at line " + line);
-				String unicode = data.substring(pos, pos + 8);
-				pos += 8;
-				try {
-					int hexVal = Integer.parseInt(unicode, 16);
-					return (char) hexVal;
-				} catch (NumberFormatException ex) {
-					throw new TomlException("Invalid unicode code point at line " + line, ex);
-				}
+				int codePoint = nextHexValue(8);
+				if (!Character.isValidCodePoint(codePoint))
+					throw error("Invalid unicode code point at line " + line);
+				sb.appendCodePoint(codePoint);
+				break;
 			}
 			default:
-				throw new TomlException("Invalid escape sequence: \"\\" + c + "\" at line " + line);
+				throw error("Invalid escape sequence: \"\\" + c + "\" at line " + line);
 		}
 	}
 	
+	/**
+	 * Reads the hexadecimal digits of an unicode escape sequence.
+	 */
+	private int nextHexValue(int digits) {
+		if (data.length() - pos < digits + 1)
+			throw error("Invalid unicode code point at line " + line);
+		int value = 0;
+		for (int i = 0; i < digits; i++) {
+			char c = data.charAt(pos++);
+			int digit;
+			if (c >= '0' && c <= '9')
+				digit = c - '0';
+			else if (c >= 'a' && c <= 'f')
+				digit = c - 'a' + 10;
+			else if (c >= 'A' && c <= 'F')
+				digit = c - 'A' + 10;
+			else
+				throw error("Invalid unicode code point at line " + line);
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+	
+	/**
+	 * Returns a part of the data as a String. UTF-8 bytes are decoded.
+	 */
+	private String substring(int start, int end) {
+		if (data instanceof String)
+			return ((String) data).substring(start, end);
+		if (data instanceof Utf8Sequence)
+			return ((Utf8Sequence) data).decode(start, end);
+		return data.subSequence(start, end).toString();
+	}
+	
+	/**
+	 * Appends a part of the data to a StringBuilder. UTF-8 bytes are decoded.
+	 */
+	private void appendTo(StringBuilder sb, int start, int end) {
+		if (data instanceof Utf8Sequence)
+			((Utf8Sequence) data).decodeTo(sb, start, end);
+		else
+			sb.append(data, start, end);
+	}
+	
+	private int indexOf(char c, int fromIndex) {
+		if (data instanceof String)
+			return ((String) data).indexOf(c, fromIndex);
+		if (data instanceof Utf8Sequence)
+			return ((Utf8Sequence) data).indexOf(c, fromIndex);
+		for (int i = fromIndex; i < data.length(); i++) {
+			if (data.charAt(i) == c)
+				return i;
+		}
+		return -1;
+	}
+	
+	private int indexOf(String str, int fromIndex) {
+		if (data instanceof String)
+			return ((String) data).indexOf(str, fromIndex);
+		if (data instanceof Utf8Sequence)
+			return ((Utf8Sequence) data).indexOf(str, fromIndex);
+		return ((StringBuilder) data).indexOf(str, fromIndex);
+	}
+	
 	/**
 	 * Converts a char to a String. The char is escaped if needed.
 	 */
-	private String toString(char c) {
+	static String toString(char c) {
 		switch (c) {
 			case '\b':
 				return "\\b";
@@ -0,0 +1,126 @@
+package com.electronwill.toml;
+
+/**
+ * The limits of the data read by a {@link TomlReader}. They protect the application from hostile or broken data:
+ * when a limit is exceeded, the reader stops immediately and throws a {@link TomlLimitException}.
+ * <p>
+ * A TomlReaderLimits is immutable. The limits are changed with the {@code with...} methods, which return a new
+ * TomlReaderLimits:
+ * </p>
+ *
+ * <pre>
+ * TomlReaderLimits limits = TomlReaderLimits.NONE.withMaxDocumentSize(1024 * 1024).withMaxDepth(32);
+ * </pre>
+ *
+ * @author TheElectronWill
+ */
+public final class TomlReaderLimits {
+
+	/**
+	 * No limit. This is the default of the TomlReaders.
+	 */
+	public static final TomlReaderLimits NONE = new TomlReaderLimits(Integer.MAX_VALUE, Integer.MAX_VALUE,
+			Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+	private final int maxDocumentSize, maxDepth, maxStringLength, maxArrayLength, maxEntries;
+
+	private TomlReaderLimits(int maxDocumentSize, int maxDepth, int maxStringLength, int maxArrayLength, int maxEntries) {
+		this.maxDocumentSize = maxDocumentSize;
+		this.maxDepth = maxDepth;
+		this.maxStringLength = maxStringLength;
+		this.maxArrayLength = maxArrayLength;
+		this.maxEntries = maxEntries;
+	}
+
+	private static int checkLimit(int limit) {
+		if (limit < 0)
+			throw new IllegalArgumentException("Invalid limit: " + limit);
+		return limit;
+	}
+
+	/**
+	 * @param maxDocumentSize the maximum size of the data, in chars, or in bytes for UTF-8 encoded data
+	 * @return a TomlReaderLimits with the given maximum size and the other limits of this one
+	 */
+	public TomlReaderLimits withMaxDocumentSize(int maxDocumentSize) {
+		return new TomlReaderLimits(checkLimit(maxDocumentSize), maxDepth, maxStringLength, maxArrayLength, maxEntries);
+	}
+
+	/**
+	 * @param maxDepth the maximum nesting depth of the arrays and inline tables, and the maximum number of parts in
+	 *        the name of a table
+	 * @return a TomlReaderLimits with the given maximum depth and the other limits of this one
+	 */
+	public TomlReaderLimits withMaxDepth(int maxDepth) {
+		return new TomlReaderLimits(maxDocumentSize, checkLimit(maxDepth), maxStringLength, maxArrayLength, maxEntries);
+	}
+
+	/**
+	 * @param maxStringLength the maximum length of the strings and of the keys, as written in the data: the escape
+	 *        sequences are counted as they are written, and the UTF-8 data is counted in bytes
+	 * @return a TomlReaderLimits with the given maximum length and the other limits of this one
+	 */
+	public TomlReaderLimits withMaxStringLength(int maxStringLength) {
+		return new TomlReaderLimits(maxDocumentSize, maxDepth, checkLimit(maxStringLength), maxArrayLength, maxEntries);
+	}
+
+	/**
+	 * @param maxArrayLength the maximum number of values in an array
+	 * @return a TomlReaderLimits with the given maximum length and the other limits of this one
+	 */
+	public TomlReaderLimits withMaxArrayLength(int maxArrayLength) {
+		return new TomlReaderLimits(maxDocumentSize, maxDepth, maxStringLength, checkLimit(maxArrayLength), maxEntries);
+	}
+
+	/**
+	 * @param maxEntries the maximum total number of entries in the data: the key/value pairs, the table
+	 *        declarations and the values in the arrays
+	 * @return a TomlReaderLimits with the given maximum number and the other limits of this one
+	 */
+	public TomlReaderLimits withMaxEntries(int maxEntries) {
+		return new TomlReaderLimits(maxDocumentSize, maxDepth, maxStringLength, maxArrayLength, checkLimit(maxEntries));
+	}
+
+	/**
+	 * @return the maximum size of the data, in chars, or in bytes for UTF-8 encoded data
+	 */
+	public int getMaxDocumentSize() {
+		return maxDocumentSize;
+	}
+
+	/**
+	 * @return the maximum nesting depth of the arrays and inline tables, and the maximum number of parts in the
+	 *         name of a table
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return the maximum length of the strings and of the keys, as written in the data
+	 */
+	public int getMaxStringLength() {
+		return maxStringLength;
+	}
+
+	/**
+	 * @return the maximum number of values in an array
+	 */
+	public int getMaxArrayLength() {
+		return maxArrayLength;
+	}
+
+	/**
+	 * @return the maximum total number of entries in the data
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	@Override
+	public String toString() {
+		return "TomlReaderLimits{maxDocumentSize=" + maxDocumentSize + ", maxDepth=" + maxDepth + ", maxStringLength="
+				+ maxStringLength + ", maxArrayLength=" + maxArrayLength + ", maxEntries=" + maxEntries + "}";
+	}
+
+}
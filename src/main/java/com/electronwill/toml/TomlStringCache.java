@@ -0,0 +1,161 @@
+package com.electronwill.toml;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of Strings, that may be shared by several {@link TomlReader}, even in different threads. The
+ * readers that use the same cache return the same String instance for identical keys, so the keys that are common
+ * to many documents are stored only once. The short string values may be cached too, see
+ * {@link TomlReader#setStringCache(TomlStringCache, boolean)}.
+ * <p>
+ * The cache is looked up with the characters of the data, so a String is only created when it isn't in the cache.
+ * Only the Strings of at most {@link #getMaxLength()} characters are cached. The cache is 2-way set-associative: each
+ * String may be in one of two entries, which are chosen by its hash code. When both entries are taken, the oldest
+ * String is evicted.
+ * </p>
+ * <p>
+ * The cache doesn't use any lock. When several threads put Strings in the same entries at the same time, some of
+ * these Strings may not be kept, but the returned Strings are always right.
+ * </p>
+ *
+ * @author TheElectronWill
+ */
+public final class TomlStringCache {
+
+	private final String[] strings;// the two entries of each set are next to each other
+	private final int setMask;
+	private final int maxLength;
+	private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+	/**
+	 * Creates a new TomlStringCache that contains up to 4096 Strings of up to 32 characters.
+	 */
+	public TomlStringCache() {
+		this(4096, 32);
+	}
+
+	/**
+	 * Creates a new TomlStringCache.
+	 *
+	 * @param capacity the maximum number of Strings in the cache. It's rounded up to a power of two.
+	 * @param maxLength the maximum length of the cached Strings
+	 */
+	public TomlStringCache(int capacity, int maxLength) {
+		if (capacity < 2 || capacity > (1 << 30))
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		if (maxLength < 0)
+			throw new IllegalArgumentException("Invalid maximum length: " + maxLength);
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		this.strings = new String[size];
+		this.setMask = size / 2 - 1;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * @return the maximum number of Strings in the cache
+	 */
+	public int getCapacity() {
+		return strings.length;
+	}
+
+	/**
+	 * @return the maximum length of the cached Strings
+	 */
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * @return the number of times a String has been found in the cache
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of times a String hasn't been found in the cache, and has been put in it
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Removes all the Strings from the cache, and resets its counters.
+	 */
+	public void clear() {
+		Arrays.fill(strings, null);
+		hits.reset();
+		misses.reset();
+	}
+
+	/**
+	 * Returns the cached String that is equal to the given one, caching it if needed.
+	 *
+	 * @param str the String
+	 * @return an equal String, which is the cached one if it's cacheable
+	 */
+	String intern(String str) {
+		return intern(str, 0, str.length());
+	}
+
+	/**
+	 * Returns the cached String that contains the given characters, creating and caching it if needed. If the data
+	 * is an Utf8Sequence, only the ASCII Strings are cached.
+	 *
+	 * @param data the data containing the characters
+	 * @param start the index of the first character, inclusive
+	 * @param end the index of the last character, exclusive
+	 * @return a String that contains the characters, which is the cached one if it's cacheable
+	 */
+	String intern(CharSequence data, int start, int end) {
+		int length = end - start;
+		if (length > maxLength)
+			return newString(data, start, end);
+		boolean utf8 = (data instanceof Utf8Sequence);
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			char c = data.charAt(i);
+			if (utf8 && c >= 0x80)// not ASCII, the String would need to be decoded to be compared
+				return newString(data, start, end);
+			h = 31 * h + c;// like String.hashCode()
+		}
+		int first = ((h ^ (h >>> 16)) & setMask) << 1;
+		String str = strings[first];
+		if (str != null && matches(str, h, data, start, length)) {
+			hits.increment();
+			return str;
+		}
+		str = strings[first + 1];
+		if (str != null && matches(str, h, data, start, length)) {
+			hits.increment();
+			return str;
+		}
+		misses.increment();
+		str = newString(data, start, end);
+		strings[first + 1] = strings[first];// evicts the oldest String of the set
+		strings[first] = str;
+		return str;
+	}
+
+	private static boolean matches(String str, int hash, CharSequence data, int start, int length) {
+		if (str.length() != length || str.hashCode() != hash)
+			return false;
+		if (str == data)
+			return true;
+		for (int i = 0; i < length; i++) {
+			if (str.charAt(i) != data.charAt(start + i))
+				return false;
+		}
+		return true;
+	}
+
+	private static String newString(CharSequence data, int start, int end) {
+		if (data instanceof Utf8Sequence)
+			return ((Utf8Sequence) data).decode(start, end);
+		if (data instanceof String)
+			return ((String) data).substring(start, end);
+		return data.subSequence(start, end).toString();
+	}
+
+}
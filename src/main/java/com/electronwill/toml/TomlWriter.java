@@ -6,10 +6,14 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 import java.time.temporal.TemporalAccessor;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Class for writing TOML v0.4.0.
@@ -30,11 +34,36 @@ import java.util.Map;
  */
 public final class TomlWriter {
 
+	/**
+	 * The escape sequence of each ASCII char, or null if the char is written as is.
+	 */
+	private static final String[] ESCAPES = new String[128];
+
+	static {
+		StringBuilder sb = new StringBuilder(2);
+		for (char c = 0; c < ESCAPES.length; c++) {
+			sb.setLength(0);
+			addEscaped(c, sb);
+			if (sb.length() > 1) {
+				ESCAPES[c] = sb.toString();
+			}
+		}
+	}
+
+	/**
+	 * The number of elements of an array of tables written by each task of {@link #writeParallel(Map, ForkJoinPool)}.
+	 */
+	private static final int ELEMENTS_PER_TASK = 256;
+
 	private final Writer writer;
 	private final int indentSize;
 	private final char indentCharacter;
 	private final String lineSeparator;
-	private final LinkedList<String> tablesNames = new LinkedList<>();
+	private final StringBuilder tableName = new StringBuilder();// the full name of the current table, ready to write
+	private final List<Object> pendingTables = new ArrayList<>();// names and values of the tables to write
+	private String[] indents = { "" };// indents[level] is the indentation of this level, computed once
+	// used to format the numbers and the datetimes
+	private final char[] formatChars = new char[Math.max(NumberFormatter.MAX_LENGTH, DateTimes.MAX_FORMAT_LENGTH)];
 	private int lineBreaks = 0, indentationLevel = -1;// -1 to prevent indenting the first level
 
 	/**
@@ -101,111 +130,263 @@ public final class TomlWriter {
 	 * @throws IOException if an error occurs
 	 */
 	public void write(Map<String, Object> data) throws IOException {
+		reset();
 		writeTableContent(data);
 	}
 
-	private void writeTableName() throws IOException {
-		Iterator<String> it = tablesNames.iterator();
-		while (it.hasNext()) {
-			String namePart = it.next();
-			writeKey(namePart);
-			if (it.hasNext()) {
-				write('.');
+	/**
+	 * Writes the specified data in the TOML format, in parallel. Each top-level table, and each group of
+	 * 256 elements of a top-level array of tables, is written by a task of the given pool
+	 * into its own buffer. This writer then copies the buffers in order, so the result is exactly the same as with
+	 * {@link #write(Map)}.
+	 * <p>
+	 * Only a few tasks run ahead of the copy, and their buffers are reused by the next tasks, so the memory used
+	 * depends on the size of the tables, not on the size of the data.
+	 * </p>
+	 *
+	 * @param data the data to write
+	 * @param pool the pool that writes the tables
+	 * @throws IOException if an error occurs
+	 */
+	public void writeParallel(Map<String, Object> data, ForkJoinPool pool) throws IOException {
+		reset();
+		writeSimpleValues(data);
+		int end = pendingTables.size();
+		int maxRunning = pool.getParallelism() * 4;
+		ArrayDeque<Segment> running = new ArrayDeque<>(maxRunning);
+		ArrayDeque<Segment> free = new ArrayDeque<>(maxRunning);
+		char[] chunk = new char[8192];
+		try {
+			for (int i = 0; i < end; i += 2) {
+				String name = (String) pendingTables.get(i);
+				Object value = pendingTables.get(i + 1);
+				int size = (value instanceof List) ? ((List) value).size() : 0;// 0 if it's written by one task
+				int from = 0;
+				do {
+					int to = Math.min(size, from + ELEMENTS_PER_TASK);
+					Object part = (size <= ELEMENTS_PER_TASK) ? value : ((List) value).subList(from, to);
+					if (running.size() == maxRunning) {
+						free.add(copy(running.poll(), chunk));
+					}
+					Segment segment = free.isEmpty() ? new Segment(this) : free.poll();
+					segment.start(pool, name, part, to == size);
+					running.add(segment);
+					from = to;
+				} while (from < size);
+			}
+			while (!running.isEmpty()) {
+				copy(running.poll(), chunk);
 			}
+		} finally {
+			for (Segment segment : running) {// after an error
+				segment.task.cancel(false);
+			}
+		}
+		newLine();
+		pendingTables.clear();
+	}
+
+	/**
+	 * Waits for the task of a segment, and copies its buffer to the underlying writer.
+	 *
+	 * @return the segment, which can be reused
+	 */
+	private Segment copy(Segment segment, char[] chunk) throws IOException {
+		segment.task.join();
+		Throwable error = segment.error;
+		if (error != null) {// rethrows the original error, with its message and stack trace
+			if (error instanceof IOException)
+				throw (IOException) error;
+			if (error instanceof Error)
+				throw (Error) error;
+			throw (RuntimeException) error;
+		}
+		StringBuilder buffer = segment.buffer;
+		for (int start = 0, length = buffer.length(); start < length; start += chunk.length) {
+			int end = Math.min(length, start + chunk.length);
+			buffer.getChars(start, end, chunk, 0);
+			writer.write(chunk, 0, end - start);
 		}
+		lineBreaks = segment.writer.lineBreaks;
+		if (segment.endsTable) {
+			newLine();
+		}
+		segment.release();
+		return segment;
 	}
 
-	private void writeTableContent(Map<String, Object> table) throws IOException {
-		writeTableContent(table, true);
-		writeTableContent(table, false);
+	/**
+	 * Estimates the number of chars written for some data, without writing it. The estimation is quick and usually
+	 * a bit too big, so that it can be used as a size hint, for example by
+	 * {@link FastStringWriter#FastStringWriter(int)}.
+	 *
+	 * @param data the data
+	 * @return the estimated number of chars
+	 */
+	public static int estimateLength(Map<String, Object> data) {
+		return estimateLength(data, Integer.MAX_VALUE - 8);
 	}
 
 	/**
-	 * Writes the content of a table.
+	 * Estimates the number of chars written for some data, like {@link #estimateLength(Map)}, but stops as soon as
+	 * the estimation is bigger than the given maximum.
 	 *
-	 * @param table the table to write
-	 * @param simpleValues true to write only the simple values (and the normal arrays), false to write only
-	 * the tables
-	 * (and the arrays of tables).
+	 * @return the estimated number of chars, or a number bigger than max
 	 */
-	private void writeTableContent(Map<String, Object> table, boolean simpleValues) throws IOException {
+	static int estimateLength(Map<String, Object> data, int max) {
+		return (int) Math.min(estimateTableLength(data, 0, 0, max), Integer.MAX_VALUE - 8);
+	}
+
+	private static long estimateTableLength(Map<?, ?> table, int nameLength, int level, long max) {
+		long length = 4;// the empty lines after the table
+		for (Map.Entry<?, ?> entry : table.entrySet()) {
+			String key = String.valueOf(entry.getKey());
+			Object value = entry.getValue();
+			long valueLength = estimateSimpleValueLength(value);
+			if (valueLength >= 0) {// key = value
+				length += level + key.length() + 5 + valueLength;
+			} else {
+				length += estimateEntryLength(key, value, nameLength, level, max);
+			}
+			if (length > max)
+				break;
+		}
+		return length;
+	}
+
+	/**
+	 * Estimates the length of an entry that isn't a simple value.
+	 */
+	private static long estimateEntryLength(String key, Object value, int nameLength, int level, long max) {
+		int childNameLength = nameLength + key.length() + 1;
+		if (value instanceof Object[]) {
+			value = Arrays.asList((Object[]) value);
+		}
+		if (value instanceof Map)// table: the header, then the content
+			return level + childNameLength + 6 + estimateTableLength((Map<?, ?>) value, childNameLength, level + 1, max);
+		if (value instanceof Collection && !((Collection) value).isEmpty()
+				&& ((Collection) value).iterator().next() instanceof Map) {// array of tables
+			long length = 0;
+			for (Object element : (Collection) value) {
+				length += level + childNameLength + 8
+						+ estimateTableLength((Map<?, ?>) element, childNameLength, level + 1, max);
+				if (length > max)
+					break;
+			}
+			return length;
+		}
+		return level + key.length() + 5 + estimateValueLength(value);// key = value
+	}
+
+	/**
+	 * Estimates the length of the most common values, or returns -1. Only final classes are checked, because
+	 * checking an interface like Map is much slower, and would take most of the time of the estimation.
+	 */
+	private static long estimateSimpleValueLength(Object value) {
+		if (value instanceof String)
+			return ((String) value).length() + 2;
+		if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+			return 6;
+		if (value instanceof Long || value instanceof Double || value instanceof Float)
+			return 16;
+		if (value instanceof Boolean)
+			return 5;
+		return -1;
+	}
+
+	private static long estimateValueLength(Object value) {
+		long length = estimateSimpleValueLength(value);
+		if (length >= 0)
+			return length;
+		if (value instanceof Number)
+			return 16;
+		if (value instanceof TemporalAccessor)
+			return 30;
+		if (value instanceof Collection) {
+			length = 2;
+			for (Object element : (Collection) value) {
+				length += estimateValueLength(element) + 2;
+			}
+			return length;
+		}
+		if (value instanceof int[])
+			return 2 + ((int[]) value).length * 8L;
+		if (value instanceof byte[])
+			return 2 + ((byte[]) value).length * 6L;
+		if (value instanceof short[])
+			return 2 + ((short[]) value).length * 8L;
+		if (value instanceof char[])
+			return 2 + ((char[]) value).length * 3L;
+		if (value instanceof long[])
+			return 2 + ((long[]) value).length * 18L;
+		if (value instanceof float[])
+			return 2 + ((float[]) value).length * 14L;
+		if (value instanceof double[])
+			return 2 + ((double[]) value).length * 18L;
+		return 16;
+	}
+
+	private void reset() {
+		tableName.setLength(0);
+		pendingTables.clear();
+		indentationLevel = -1;
+	}
+
+	private void writeTableContent(Map<String, Object> table) throws IOException {
+		int firstTable = pendingTables.size();
+		writeSimpleValues(table);
+
+		// Writes the tables and the arrays of tables
+		int end = pendingTables.size();
+		for (int i = firstTable; i < end; i += 2) {
+			String name = (String) pendingTables.get(i);
+			Object value = pendingTables.get(i + 1);
+			int parentNameLength = tableName.length();
+			enterTable(name);
+			writeTableBody(value);
+			indentationLevel--;
+			tableName.setLength(parentNameLength);
+			newLine();
+		}
+		newLine();
+		pendingTables.subList(firstTable, end).clear();
+	}
+
+	/**
+	 * Writes the simple values of a table and adds its tables to the pending ones, which must be written after
+	 * them. Each entry is classified only once.
+	 */
+	private void writeSimpleValues(Map<String, Object> table) throws IOException {
 		for (Map.Entry<String, Object> entry : table.entrySet()) {
 			String name = entry.getKey();
 			Object value = entry.getValue();
-			if (value instanceof Collection) {// array
+			if (value instanceof Map) {// table
+				pendingTables.add(name);
+				pendingTables.add(value);
+				continue;
+			} else if (value instanceof Collection) {// array
 				Collection c = (Collection) value;
 				if (!c.isEmpty() && c.iterator().next() instanceof Map) {// array of tables
-					if (simpleValues) {
-						continue;
-					}
-					tablesNames.addLast(name);
-					indentationLevel++;
-					for (Object element : c) {
-						indent();
-						write("[[");
-						writeTableName();
-						write("]]\n");
-						Map<String, Object> map = (Map) element;
-						writeTableContent(map);
-					}
-					indentationLevel--;
-					tablesNames.removeLast();
-				} else {// normal array
-					if (!simpleValues) {
-						continue;
-					}
-					indent();
-					writeKey(name);
-					write(" = ");
-					writeArray(c);
+					pendingTables.add(name);
+					pendingTables.add(c);
+					continue;
 				}
+				indent();
+				writeKey(name);
+				write(" = ");
+				writeArray(c);
 			} else if (value instanceof Object[]) {// array
 				Object[] array = (Object[]) value;
 				if (array.length > 0 && array[0] instanceof Map) {// array of tables
-					if (simpleValues) {
-						continue;
-					}
-					tablesNames.addLast(name);
-					indentationLevel++;
-					for (Object element : array) {
-						indent();
-						write("[[");
-						writeTableName();
-						write("]]\n");
-						Map<String, Object> map = (Map) element;
-						writeTableContent(map);
-					}
-					indentationLevel--;
-					tablesNames.removeLast();
-				} else {// normal array
-					if (!simpleValues) {
-						continue;
-					}
-					indent();
-					writeKey(name);
-					write(" = ");
-					writeArray(array);
-				}
-			} else if (value instanceof Map) {// table
-				if (simpleValues) {
+					pendingTables.add(name);
+					pendingTables.add(Arrays.asList(array));
 					continue;
 				}
-				tablesNames.addLast(name);
-				indentationLevel++;
-
 				indent();
-				write('[');
-				writeTableName();
-				write(']');
-				newLine();
-				writeTableContent((Map) value);
-
-				indentationLevel--;
-				tablesNames.removeLast();
+				writeKey(name);
+				write(" = ");
+				writeArray(array);
 			} else {// simple value
-				if (!simpleValues) {
-					continue;
-				}
 				indent();
 				writeKey(name);
 				write(" = ");
@@ -216,29 +397,119 @@ public final class TomlWriter {
 		newLine();
 	}
 
-	private void writeKey(String key) throws IOException {
+	private void enterTable(String name) {
+		if (tableName.length() > 0) {
+			tableName.append('.');
+		}
+		appendKey(name, tableName);
+		indentationLevel++;
+	}
+
+	/**
+	 * Writes a table, or the elements of an array of tables, with their headers.
+	 */
+	private void writeTableBody(Object value) throws IOException {
+		if (value instanceof Map) {// table
+			indent();
+			write('[');
+			write(tableName.toString());
+			write(']');
+			newLine();
+			writeTableContent((Map) value);
+		} else {// array of tables
+			String header = "[[" + tableName + "]]\n";
+			for (Object element : (Collection) value) {
+				indent();
+				write(header);
+				Map<String, Object> map = (Map) element;
+				writeTableContent(map);
+			}
+		}
+	}
+
+	void writeKey(String key) throws IOException {
 		for (int i = 0; i < key.length(); i++) {
-			char c = key.charAt(i);
-			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_')) {
-				writeString(key);
+			if (!isBareKeyChar(key.charAt(i))) {// the key must be quoted
+				write('"');
+				writer.write(key, 0, i);// the first chars are valid bare chars, which are never escaped
+				writeEscaped(key, i);
+				write('"');
 				return;
 			}
 		}
 		write(key);
 	}
 
-	private void writeString(String str) throws IOException {
-		StringBuilder sb = new StringBuilder();
+	private static boolean isBareKey(String key) {
+		for (int i = 0; i < key.length(); i++) {
+			if (!isBareKeyChar(key.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isBareKeyChar(char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_';
+	}
+
+	/**
+	 * Appends a key to a StringBuilder, with quotes if it isn't a valid bare key.
+	 */
+	static void appendKey(String key, StringBuilder sb) {
+		if (isBareKey(key)) {
+			sb.append(key);
+			return;
+		}
 		sb.append('"');
-		for (int i = 0; i < str.length(); i++) {
-			char c = str.charAt(i);
-			addEscaped(c, sb);
+		for (int i = 0; i < key.length(); i++) {
+			addEscaped(key.charAt(i), sb);
 		}
 		sb.append('"');
-		write(sb.toString());
+	}
+
+	void writeString(String str) throws IOException {
+		write('"');
+		writeEscaped(str, 0);
+		write('"');
+	}
+
+	/**
+	 * Writes the chars of a String, from the given index, with the necessary escape sequences. The chars that don't
+	 * need to be escaped are written by runs, directly from the String, and a String without any escape sequence
+	 * is written as is.
+	 */
+	private void writeEscaped(String str, int fromIndex) throws IOException {
+		int length = str.length();
+		int runStart = fromIndex;// the beginning of the current run of unescaped chars
+		for (int i = fromIndex; i < length; i++) {
+			char c = str.charAt(i);
+			if (c < ESCAPES.length && ESCAPES[c] != null) {
+				if (i > runStart) {
+					writer.write(str, runStart, i - runStart);
+				}
+				writer.write(ESCAPES[c]);
+				runStart = i + 1;
+			}
+		}
+		if (runStart == 0) {
+			writer.write(str);
+		} else if (runStart < length) {
+			writer.write(str, runStart, length - runStart);
+		}
 	}
 
 	private void writeArray(Collection c) throws IOException {
+		if (c instanceof TomlArrays.IntList) {// writes the numbers without boxing them
+			writeArray(((TomlArrays.IntList) c).array());
+			return;
+		} else if (c instanceof TomlArrays.LongList) {
+			writeArray(((TomlArrays.LongList) c).array());
+			return;
+		} else if (c instanceof TomlArrays.DoubleList) {
+			writeArray(((TomlArrays.DoubleList) c).array());
+			return;
+		}
 		write('[');
 		for (Object element : c) {
 			writeValue(element);
@@ -259,7 +530,7 @@ public final class TomlWriter {
 	private void writeArray(byte[] array) throws IOException {
 		write('[');
 		for (byte element : array) {
-			write(String.valueOf(element));
+			writeLong(element);
 			write(", ");
 		}
 		write(']');
@@ -268,7 +539,7 @@ public final class TomlWriter {
 	private void writeArray(short[] array) throws IOException {
 		write('[');
 		for (short element : array) {
-			write(String.valueOf(element));
+			writeLong(element);
 			write(", ");
 		}
 		write(']');
@@ -277,7 +548,7 @@ public final class TomlWriter {
 	private void writeArray(char[] array) throws IOException {
 		write('[');
 		for (char element : array) {
-			write(String.valueOf(element));
+			write(element);
 			write(", ");
 		}
 		write(']');
@@ -286,7 +557,7 @@ public final class TomlWriter {
 	private void writeArray(int[] array) throws IOException {
 		write('[');
 		for (int element : array) {
-			write(String.valueOf(element));
+			writeLong(element);
 			write(", ");
 		}
 		write(']');
@@ -295,7 +566,7 @@ public final class TomlWriter {
 	private void writeArray(long[] array) throws IOException {
 		write('[');
 		for (long element : array) {
-			write(String.valueOf(element));
+			writeLong(element);
 			write(", ");
 		}
 		write(']');
@@ -304,7 +575,7 @@ public final class TomlWriter {
 	private void writeArray(float[] array) throws IOException {
 		write('[');
 		for (float element : array) {
-			write(String.valueOf(element));
+			writeFloat(element);
 			write(", ");
 		}
 		write(']');
@@ -313,24 +584,25 @@ public final class TomlWriter {
 	private void writeArray(double[] array) throws IOException {
 		write('[');
 		for (double element : array) {
-			write(String.valueOf(element));
+			writeDouble(element);
 			write(", ");
 		}
 		write(']');
 	}
 
-	private void writeValue(Object value) throws IOException {
+	void writeValue(Object value) throws IOException {
 		if (value instanceof String) {
 			writeString((String) value);
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			writeLong(((Number) value).longValue());
+		} else if (value instanceof Double) {
+			writeDouble((Double) value);
+		} else if (value instanceof Float) {
+			writeFloat((Float) value);
 		} else if (value instanceof Number || value instanceof Boolean) {
 			write(value.toString());
 		} else if (value instanceof TemporalAccessor) {
-			String formatted = Toml.DATE_FORMATTER.format((TemporalAccessor) value);
-			if (formatted.endsWith("T"))// If the last character is a 'T'
-			{
-				formatted = formatted.substring(0, formatted.length() - 1);// removes it because it's invalid.
-			}
-			write(formatted);
+			writeDateTime((TemporalAccessor) value);
 		} else if (value instanceof Collection) {
 			writeArray((Collection) value);
 		} else if (value instanceof int[]) {
@@ -362,24 +634,79 @@ public final class TomlWriter {
 		}
 	}
 
-	private void write(char c) throws IOException {
+	void write(char c) throws IOException {
 		writer.write(c);
 		lineBreaks = 0;
 	}
 
-	private void write(String str) throws IOException {
+	void write(String str) throws IOException {
 		writer.write(str);
 		lineBreaks = 0;
 	}
 
+	void writeDateTime(TemporalAccessor dateTime) throws IOException {
+		int length = DateTimes.format(dateTime, formatChars, 0);
+		if (length >= 0) {
+			writer.write(formatChars, 0, length);
+			lineBreaks = 0;
+			return;
+		}
+		String formatted = Toml.DATE_FORMATTER.format(dateTime);
+		if (formatted.endsWith("T")) {// If the last character is a 'T'
+			formatted = formatted.substring(0, formatted.length() - 1);// removes it because it's invalid.
+		}
+		write(formatted);
+	}
+
+	void writeLong(long value) throws IOException {
+		writer.write(formatChars, 0, NumberFormatter.formatLong(value, formatChars, 0));
+		lineBreaks = 0;
+	}
+
+	void writeDouble(double value) throws IOException {
+		writer.write(formatChars, 0, NumberFormatter.formatDouble(value, formatChars, 0));
+		lineBreaks = 0;
+	}
+
+	private void writeFloat(float value) throws IOException {
+		writer.write(formatChars, 0, NumberFormatter.formatFloat(value, formatChars, 0));
+		lineBreaks = 0;
+	}
+
 	private void indent() throws IOException {
-		for (int i = 0; i < indentationLevel; i++) {
-			for (int j = 0; j < indentSize; j++) {
-				write(indentCharacter);
-			}
+		writeIndent(indentationLevel);
+	}
+
+	/**
+	 * Writes the indentation of a level. Nothing is written for the levels 0 and below.
+	 */
+	void writeIndent(int level) throws IOException {
+		if (level > 0) {
+			write(indentation(level));
 		}
 	}
 
+	/**
+	 * Writes the line separator, even if some lines are already empty.
+	 */
+	void writeLineSeparator() throws IOException {
+		writer.write(lineSeparator);
+	}
+
+	private String indentation(int level) {
+		if (level >= indents.length) {
+			indents = Arrays.copyOf(indents, Math.max(level + 1, indents.length * 2));
+		}
+		String indentation = indents[level];
+		if (indentation == null) {
+			char[] chars = new char[level * indentSize];
+			Arrays.fill(chars, indentCharacter);
+			indentation = new String(chars);
+			indents[level] = indentation;
+		}
+		return indentation;
+	}
+
 	static void addEscaped(char c, StringBuilder sb) {
 		switch (c) {
 			case '\b':
@@ -409,4 +736,49 @@ public final class TomlWriter {
 		}
 	}
 
+	/**
+	 * A part of the data written by a task of {@link #writeParallel(Map, ForkJoinPool)}: a top-level table, or some
+	 * elements of a top-level array of tables. It has its own writer and buffer.
+	 */
+	private static final class Segment implements Runnable {
+		final StringBuilder buffer = new StringBuilder(8192);
+		final TomlWriter writer;
+		String name;
+		Object value;
+		boolean endsTable;// true if the line break after the table must be written after this segment
+		ForkJoinTask<?> task;
+		Throwable error;// the error thrown by the task, or null
+
+		Segment(TomlWriter parent) {
+			writer = new TomlWriter(new FastStringWriter(buffer), parent.indentSize, parent.indentCharacter == ' ',
+					parent.lineSeparator);
+		}
+
+		void start(ForkJoinPool pool, String name, Object value, boolean endsTable) {
+			this.name = name;
+			this.value = value;
+			this.endsTable = endsTable;
+			task = pool.submit(this);
+		}
+
+		void release() {
+			name = null;
+			value = null;
+			task = null;
+			error = null;
+		}
+
+		@Override
+		public void run() {
+			buffer.setLength(0);
+			try {
+				writer.reset();
+				writer.enterTable(name);
+				writer.writeTableBody(value);
+			} catch (Throwable e) {
+				error = e;
+			}
+		}
+	}
+
 }
@@ -0,0 +1,210 @@
+package com.electronwill.toml;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A CharSequence view of UTF-8 encoded bytes, where each byte is a char. This allows the {@link TomlReader} to
+ * work directly on the bytes: all the TOML syntax is ASCII, so only the keys and the strings need to be decoded.
+ * The decoding is done by {@link #decode(int, int)} and {@link #decodeTo(StringBuilder, int, int)}. This is NOT
+ * Thread safe.
+ * <p>
+ * The searches read the bytes 8 at a time, as a long, and test all of them at once with a few arithmetic operations
+ * (SWAR: SIMD within a register).
+ * </p>
+ *
+ * @author TheElectronWill
+ */
+final class Utf8Sequence implements CharSequence {
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+	private ByteBuffer buffer;
+	private int length;
+	private byte[] scratch;// used to decode the bytes of a direct ByteBuffer
+
+	/**
+	 * Creates a new Utf8Sequence that contains the remaining bytes of the given buffer. The buffer's position is
+	 * not modified.
+	 *
+	 * @param buffer the bytes
+	 */
+	Utf8Sequence(ByteBuffer buffer) {
+		this.buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);// the first byte is the most significant
+		this.length = this.buffer.remaining();
+	}
+
+	/**
+	 * Makes this Utf8Sequence contain the remaining bytes of another buffer. The buffer's position is not modified.
+	 *
+	 * @param buffer the bytes
+	 */
+	void reset(ByteBuffer buffer) {
+		this.buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+		this.length = this.buffer.remaining();
+	}
+
+	/**
+	 * Releases the bytes, so that they can be garbage collected. This Utf8Sequence becomes empty.
+	 */
+	void release() {
+		buffer = null;
+		length = 0;
+	}
+
+	/**
+	 * Creates a new Utf8Sequence that contains the same bytes. Each Thread must use its own Utf8Sequence.
+	 */
+	Utf8Sequence duplicate() {
+		return new Utf8Sequence(buffer);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) (buffer.get(index) & 0xFF);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		ByteBuffer sub = buffer.duplicate();
+		((Buffer) sub).position(start).limit(end);// cast: Java 8 has no ByteBuffer overrides
+		return new Utf8Sequence(sub);
+	}
+
+	/**
+	 * Returns a word where the high bit of each byte is set if this byte is zero in the given word, and the other
+	 * bits are cleared. Unlike the usual {@code (word - ONES) & ~word} trick, there is no false positive.
+	 */
+	private static long zeroBytes(long word) {
+		long t = (word & LOW_BITS) + LOW_BITS;
+		return ~(t | word | LOW_BITS);
+	}
+
+	/**
+	 * Returns the index of the first byte found by {@link #zeroBytes(long)} in a word read at the given index.
+	 */
+	private static int firstFound(int index, long found) {
+		return index + (Long.numberOfLeadingZeros(found) >>> 3);
+	}
+
+	/**
+	 * Returns the index of the first occurence of an ASCII character.
+	 *
+	 * @param c the character to find
+	 * @param fromIndex where to start searching
+	 * @return the index of c, or -1 if not found
+	 */
+	int indexOf(char c, int fromIndex) {
+		byte b = (byte) c;
+		long pattern = ONES * b;
+		int i = fromIndex;
+		for (int max = length - 8; i <= max; i += 8) {
+			long found = zeroBytes(buffer.getLong(i) ^ pattern);
+			if (found != 0)
+				return firstFound(i, found);
+		}
+		for (; i < length; i++) {
+			if (buffer.get(i) == b)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the first occurence of one of four ASCII characters.
+	 *
+	 * @param c1 a character to find
+	 * @param c2 a character to find
+	 * @param c3 a character to find
+	 * @param c4 a character to find
+	 * @param fromIndex where to start searching
+	 * @return the index of the first character found, or -1 if none is found
+	 */
+	int indexOfAny(char c1, char c2, char c3, char c4, int fromIndex) {
+		long p1 = ONES * (byte) c1, p2 = ONES * (byte) c2, p3 = ONES * (byte) c3, p4 = ONES * (byte) c4;
+		int i = fromIndex;
+		for (int max = length - 8; i <= max; i += 8) {
+			long word = buffer.getLong(i);
+			long found = zeroBytes(word ^ p1) | zeroBytes(word ^ p2) | zeroBytes(word ^ p3) | zeroBytes(word ^ p4);
+			if (found != 0)
+				return firstFound(i, found);
+		}
+		for (; i < length; i++) {
+			byte b = buffer.get(i);
+			if (b == c1 || b == c2 || b == c3 || b == c4)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the first occurence of an ASCII String.
+	 *
+	 * @param str the String to find
+	 * @param fromIndex where to start searching
+	 * @return the index of str, or -1 if not found
+	 */
+	int indexOf(String str, int fromIndex) {
+		char first = str.charAt(0);
+		int max = length - str.length();
+		searchLoop: for (int i = indexOf(first, fromIndex); i != -1 && i <= max; i = indexOf(first, i + 1)) {
+			for (int j = 1; j < str.length(); j++) {
+				if (buffer.get(i + j) != (byte) str.charAt(j))
+					continue searchLoop;
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes some UTF-8 bytes to a String.
+	 *
+	 * @param start the beginning index, inclusive
+	 * @param end the ending index, exclusive
+	 * @return the decoded String
+	 */
+	String decode(int start, int end) {
+		int len = end - start;
+		if (buffer.hasArray())
+			return new String(buffer.array(), buffer.arrayOffset() + start, len, StandardCharsets.UTF_8);
+		if (scratch == null || scratch.length < len)
+			scratch = new byte[Math.max(len, 64)];
+		ByteBuffer view = buffer.duplicate();
+		((Buffer) view).position(start);
+		view.get(scratch, 0, len);
+		return new String(scratch, 0, len, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decodes some UTF-8 bytes and appends them to a StringBuilder.
+	 *
+	 * @param sb the StringBuilder
+	 * @param start the beginning index, inclusive
+	 * @param end the ending index, exclusive
+	 */
+	void decodeTo(StringBuilder sb, int start, int end) {
+		for (int i = start; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b < 0) {// not ASCII
+				sb.append(decode(i, end));
+				return;
+			}
+			sb.append((char) b);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return decode(0, length);
+	}
+
+}
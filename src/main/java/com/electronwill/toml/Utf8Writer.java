@@ -0,0 +1,230 @@
+package com.electronwill.toml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A Writer that encodes the chars to UTF-8 in a ByteBuffer, and writes the buffer to an OutputStream or a
+ * channel when it's full. Unlike an {@link java.io.OutputStreamWriter}, it has no lock and no CharsetEncoder: the
+ * ASCII chars are copied directly to the buffer, and only the other chars are encoded. The malformed surrogates are
+ * replaced by '?', like the OutputStreamWriter does. This is NOT Thread safe.
+ *
+ * @author TheElectronWill
+ */
+final class Utf8Writer extends Writer {
+
+	private final ByteBuffer buffer;
+	private final byte[] bytes;// the array of the buffer
+	private int position;
+	private final OutputStream out;
+	private final WritableByteChannel channel;
+	private char highSurrogate;// a high surrogate waiting for its low surrogate, or 0
+
+	/**
+	 * Creates a new Utf8Writer that writes to an OutputStream.
+	 *
+	 * @param buffer the buffer to use, which must have an accessible array
+	 * @param out where to write the bytes
+	 */
+	Utf8Writer(ByteBuffer buffer, OutputStream out) {
+		this.buffer = buffer;
+		this.bytes = buffer.array();
+		this.out = out;
+		this.channel = null;
+	}
+
+	/**
+	 * Creates a new Utf8Writer that writes to a channel.
+	 *
+	 * @param buffer the buffer to use, which must have an accessible array
+	 * @param channel where to write the bytes
+	 */
+	Utf8Writer(ByteBuffer buffer, WritableByteChannel channel) {
+		this.buffer = buffer;
+		this.bytes = buffer.array();
+		this.out = null;
+		this.channel = channel;
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		if (c < 0x80 && highSurrogate == 0 && position < bytes.length) {
+			bytes[position++] = (byte) c;
+		} else {
+			encode((char) c);
+		}
+	}
+
+	@Override
+	public void write(String str) throws IOException {
+		write(str, 0, str.length());
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		int end = off + len;
+		int i = off;
+		while (i < end) {
+			if (highSurrogate == 0) {// copies the ASCII chars directly
+				byte[] bytes = this.bytes;
+				int pos = position;
+				int runEnd = Math.min(end, i + bytes.length - pos);
+				while (i < runEnd) {
+					char c = str.charAt(i);
+					if (c >= 0x80)
+						break;
+					bytes[pos++] = (byte) c;
+					i++;
+				}
+				position = pos;
+				if (i == end)
+					return;
+				if (pos == bytes.length) {
+					flushBuffer();
+					continue;
+				}
+			}
+			encode(str.charAt(i++));
+		}
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		int end = off + len;
+		int i = off;
+		while (i < end) {
+			if (highSurrogate == 0) {// copies the ASCII chars directly
+				byte[] bytes = this.bytes;
+				int pos = position;
+				int runEnd = Math.min(end, i + bytes.length - pos);
+				while (i < runEnd) {
+					char c = cbuf[i];
+					if (c >= 0x80)
+						break;
+					bytes[pos++] = (byte) c;
+					i++;
+				}
+				position = pos;
+				if (i == end)
+					return;
+				if (pos == bytes.length) {
+					flushBuffer();
+					continue;
+				}
+			}
+			encode(cbuf[i++]);
+		}
+	}
+
+	@Override
+	public Utf8Writer append(char c) throws IOException {
+		write(c);
+		return this;
+	}
+
+	@Override
+	public Utf8Writer append(CharSequence csq) throws IOException {
+		write(String.valueOf(csq));
+		return this;
+	}
+
+	@Override
+	public Utf8Writer append(CharSequence csq, int start, int end) throws IOException {
+		write(String.valueOf(csq), start, end - start);
+		return this;
+	}
+
+	/**
+	 * Encodes any char, with enough room in the buffer for the longest UTF-8 sequence.
+	 */
+	private void encode(char c) throws IOException {
+		if (position > bytes.length - 4) {
+			flushBuffer();
+		}
+		if (highSurrogate != 0) {
+			char high = highSurrogate;
+			highSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				int codePoint = Character.toCodePoint(high, c);
+				bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+				bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+				return;
+			}
+			bytes[position++] = '?';// the high surrogate has no low surrogate
+			if (position > bytes.length - 4) {
+				flushBuffer();
+			}
+		}
+		if (c < 0x80) {
+			bytes[position++] = (byte) c;
+		} else if (c < 0x800) {
+			bytes[position++] = (byte) (0xC0 | (c >> 6));
+			bytes[position++] = (byte) (0x80 | (c & 0x3F));
+		} else if (Character.isHighSurrogate(c)) {
+			highSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			bytes[position++] = '?';// the low surrogate has no high surrogate
+		} else {
+			bytes[position++] = (byte) (0xE0 | (c >> 12));
+			bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			bytes[position++] = (byte) (0x80 | (c & 0x3F));
+		}
+	}
+
+	/**
+	 * Writes the content of the buffer and empties it.
+	 */
+	private void flushBuffer() throws IOException {
+		if (position == 0)
+			return;
+		if (out != null) {
+			out.write(bytes, 0, position);
+		} else {
+			((Buffer) buffer).clear().limit(position);// cast: Java 8 has no ByteBuffer overrides
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		position = 0;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		if (out != null) {
+			out.flush();
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes, without flushing or closing the OutputStream or the channel. A high surrogate at
+	 * the end of the data is replaced by '?'.
+	 */
+	void finish() throws IOException {
+		if (highSurrogate != 0) {
+			highSurrogate = 0;
+			write('?');
+		}
+		flushBuffer();
+	}
+
+	/**
+	 * Writes the remaining bytes and closes the OutputStream or the channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		finish();
+		if (out != null) {
+			out.close();
+		} else {
+			channel.close();
+		}
+	}
+
+}